@@ -0,0 +1,51 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * The benchmarks run from the project directory and use the bundled models and
+ * data.
+ */
+final class BenchmarkPaths {
+
+    // the bundled unversioned export, the numbered versions trainings add next
+    // to it are left out so the results don't move with them
+    private static final Path IRIS_MODEL = Path.of("src/main/resources/models/iris");
+    static final String IRIS_DATA = "src/main/resources/train_data/iris/bezdekIris.data";
+    static final String OBJECT_DETECTION_MODEL = "src/main/resources/models/efficientdet-tensorflow2-d0-v1";
+    static final String BEACH_IMAGE = "src/main/resources/images/Beachgoers_enjoy_outing_at_the_beach.jpg";
+
+    private BenchmarkPaths() {
+    }
+
+    /**
+     * @return a temporary copy of the bundled iris model alone, to delete with
+     *         {@link #deleteCopy(Path)}
+     */
+    static Path bundledIrisModel() throws IOException {
+        var copy = Files.createTempDirectory("benchmark-iris-model");
+        Files.copy(IRIS_MODEL.resolve("saved_model.pb"), copy.resolve("saved_model.pb"));
+        FileSystemUtils.copyRecursively(IRIS_MODEL.resolve("variables"), copy.resolve("variables"));
+        return copy;
+    }
+
+    static void deleteCopy(Path copy) throws IOException {
+        FileSystemUtils.deleteRecursively(copy);
+    }
+
+    /**
+     * @return the profiles of the tensorflow.execution.* defaults, without
+     *         auto-tune
+     */
+    static ModelExecutionProfiles executionProfiles() {
+        var executionProfiles = new ModelExecutionProfiles();
+        ReflectionTestUtils.setField(executionProfiles, "environment", new StandardEnvironment());
+        return executionProfiles;
+    }
+}
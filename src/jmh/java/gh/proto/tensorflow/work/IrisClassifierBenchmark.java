@@ -0,0 +1,71 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * One session run of the exported iris model per call, at several batch sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IrisClassifierBenchmark {
+
+    @Param({ "1", "8", "64", "512" })
+    private int batchSize;
+
+    private Path modelPath;
+
+    private IrisClassifier irisClassifier;
+
+    private float[] features;
+
+    @Setup
+    public void setUp() throws IOException {
+        modelPath = BenchmarkPaths.bundledIrisModel();
+        irisClassifier = new IrisClassifier();
+        ReflectionTestUtils.setField(irisClassifier, "modelPath", modelPath.toString());
+        ReflectionTestUtils.setField(irisClassifier, "inferenceMetrics",
+                new InferenceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(irisClassifier, "executionProfiles", BenchmarkPaths.executionProfiles());
+        irisClassifier.init();
+
+        var random = new Random(1234567L);
+        features = new float[batchSize * IrisClassifier.INPUT_LAYER_WIDTH];
+        for (int idx = 0; idx < features.length; idx++) {
+            features[idx] = 0.1f + random.nextFloat() * 7.8f;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        irisClassifier.clean();
+        BenchmarkPaths.deleteCopy(modelPath);
+    }
+
+    @Benchmark
+    public String[] classify() {
+        return irisClassifier.classify(features, batchSize);
+    }
+}
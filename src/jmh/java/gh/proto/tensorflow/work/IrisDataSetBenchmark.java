@@ -0,0 +1,59 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Parsing of the training csv, the bundled file and the bundled file repeated
+ * to a bigger size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IrisDataSetBenchmark {
+
+    @Param({ "1", "1000" })
+    private int repetitions;
+
+    private Path csv;
+
+    @Setup
+    public void setUp() throws IOException {
+        var bundledData = Files.readAllBytes(Path.of(BenchmarkPaths.IRIS_DATA));
+        csv = Files.createTempFile("iris-benchmark", ".data");
+        try (var out = Files.newOutputStream(csv)) {
+            for (int repetition = 0; repetition < repetitions; repetition++) {
+                out.write(bundledData);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(csv);
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        return IrisDataSet.load(new FileSystemResource(csv)).samples();
+    }
+}
@@ -0,0 +1,78 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.op.Ops;
+
+import gh.proto.tensorflow.work.IrisTrainer.TrainingBatch;
+import gh.proto.tensorflow.work.IrisTrainer.TrainingOps;
+
+/**
+ * A single optimizer step of the iris network, batch filling included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IrisTrainerBenchmark {
+
+    @Param({ "1", "16", "150" })
+    private int batchSize;
+
+    private Graph graph;
+    private Session session;
+    private TrainingOps trainingOps;
+    private TrainingBatch batch;
+    private IrisDataSet trainData;
+    private int[] sampleOrder;
+
+    @Setup
+    public void setUp() throws IOException {
+        trainData = IrisDataSet.load(new FileSystemResource(BenchmarkPaths.IRIS_DATA));
+        sampleOrder = new int[trainData.samples()];
+        for (int sampleIdx = 0; sampleIdx < sampleOrder.length; sampleIdx++) {
+            sampleOrder[sampleIdx] = sampleIdx;
+        }
+
+        var irisTrainer = new IrisTrainer();
+        graph = new Graph();
+        var tensorFlowApi = Ops.create(graph);
+        irisTrainer.buildNetwork(tensorFlowApi, IrisTrainer.DEFAULT_HYPERPARAMETERS);
+        trainingOps = irisTrainer.buildTrainingOps(graph, tensorFlowApi, IrisTrainer.DEFAULT_HYPERPARAMETERS);
+        session = new Session(graph);
+        batch = new TrainingBatch(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        batch.close();
+        session.close();
+        graph.close();
+    }
+
+    @Benchmark
+    public int trainingStep() {
+        batch.fill(trainData, sampleOrder, 0);
+        try (var result = IrisTrainer.runTrainingStep(session, trainingOps, batch)) {
+            return result.size();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.work.ObjectDetector.DecodedImage;
+import gh.proto.tensorflow.work.ObjectDetector.ObjectBox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Splits the cost of a detection on the bundled beach image between the image
+ * decode and the model call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObjectDetectorBenchmark {
+
+    private ObjectDetector objectDetector;
+
+    private byte[] imageData;
+
+    private DecodedImage decodedImage;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectDetector = new ObjectDetector();
+        ReflectionTestUtils.setField(objectDetector, "modelPath", BenchmarkPaths.OBJECT_DETECTION_MODEL);
+        ReflectionTestUtils.setField(objectDetector, "inferenceMetrics",
+                new InferenceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(objectDetector, "executionProfiles", BenchmarkPaths.executionProfiles());
+        ReflectionTestUtils.setField(objectDetector, "defaultMinScore", 0.3f);
+        ReflectionTestUtils.setField(objectDetector, "defaultMaxDetections", 100);
+        ReflectionTestUtils.setField(objectDetector, "iouThreshold", 0.5f);
+        objectDetector.init();
+
+        imageData = Files.readAllBytes(Path.of(BenchmarkPaths.BEACH_IMAGE));
+        decodedImage = objectDetector.decode(imageData);
+    }
+
+    @TearDown
+    public void tearDown() {
+        decodedImage.close();
+        objectDetector.clean();
+    }
+
+    @Benchmark
+    public long decode() {
+        try (var decoded = objectDetector.decode(imageData)) {
+            return decoded.modelInput().shape().size();
+        }
+    }
+
+    @Benchmark
+    public int infer() {
+        try (var modelOutput = objectDetector.infer(decodedImage)) {
+            return modelOutput.size();
+        }
+    }
+
+    @Benchmark
+    public List<ObjectBox> decodeInferPostprocess() {
+        try (var decoded = objectDetector.decode(imageData)) {
+            return objectDetector.postprocess(objectDetector.infer(decoded));
+        }
+    }
+}
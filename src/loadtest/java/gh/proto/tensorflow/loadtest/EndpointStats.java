@@ -0,0 +1,113 @@
+package gh.proto.tensorflow.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies and outcomes of the requests of one endpoint, recorded by the
+ * response threads and read per report interval by the reporting thread.
+ * <p>
+ * Latencies are kept in microseconds with 3 significant digits, only the ones
+ * of successful requests; the other outcomes are counted by status code, or by
+ * "timeout", "io" and "dropped".
+ */
+final class EndpointStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Figures of a report interval or of the whole run.
+     */
+    record Figures(long successes, long errors, double seconds, double p50Millis, double p95Millis, double p99Millis,
+            double p999Millis, double maxMillis) {
+
+        double throughput() {
+            return (successes + errors) / seconds;
+        }
+
+        double errorRate() {
+            return successes + errors == 0 ? 0 : (double) errors / (successes + errors);
+        }
+    };
+
+    private final String endpoint;
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    private final AtomicLong intervalErrors = new AtomicLong();
+    private long totalErrors;
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    EndpointStats(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    String endpoint() {
+        return endpoint;
+    }
+
+    void success(long latencyNanos) {
+        recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        outcome("200");
+    }
+
+    void failure(String outcome) {
+        intervalErrors.incrementAndGet();
+        outcome(outcome);
+    }
+
+    /**
+     * Forgets the warm up requests.
+     */
+    synchronized void reset() {
+        recorder.reset();
+        total.reset();
+        intervalErrors.set(0);
+        totalErrors = 0;
+        outcomes.clear();
+    }
+
+    /**
+     * @return the figures since the previous call, also added to the run totals
+     */
+    synchronized Figures interval(double seconds) {
+        var histogram = recorder.getIntervalHistogram();
+        total.add(histogram);
+        var errors = intervalErrors.getAndSet(0);
+        totalErrors += errors;
+        return figures(histogram, errors, seconds);
+    }
+
+    synchronized Figures total(double seconds) {
+        return figures(total, totalErrors, seconds);
+    }
+
+    /**
+     * @return the requests per outcome since the warm up
+     */
+    Map<String, Long> outcomes() {
+        var counts = new TreeMap<String, Long>();
+        outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+        return counts;
+    }
+
+    private void outcome(String outcome) {
+        outcomes.computeIfAbsent(outcome, name -> new LongAdder()).increment();
+    }
+
+    private static Figures figures(Histogram histogram, long errors, double seconds) {
+        return new Figures(histogram.getTotalCount(), errors, seconds, millis(histogram, 50),
+                millis(histogram, 95), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / 1000d);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000d;
+    }
+}
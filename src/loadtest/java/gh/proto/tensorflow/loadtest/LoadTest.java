@@ -0,0 +1,276 @@
+package gh.proto.tensorflow.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a mix of /iris-classify and /detect-objects requests against the
+ * application for a while and reports, per interval and for the whole run,
+ * throughput, latency percentiles and error rate per endpoint along with the
+ * application memory.
+ * <p>
+ * Unlike the JMH benchmarks it goes thru HTTP, the inference lanes and their
+ * queues, so queuing delays, load shedding and native memory growth over a long
+ * run are visible. Without --url the packaged jar is started with native memory
+ * tracking and stopped at the end.
+ *
+ * <pre>
+ * mvn -Ploadtest -DskipTests verify -Dloadtest.args='--mode=open --rate=200 --duration-seconds=600'
+ * </pre>
+ */
+public final class LoadTest {
+
+    private static final int DEFAULT_PORT = 8095;
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LoadTestOptions options;
+    private final String baseUrl;
+    private final HttpClient httpClient;
+    private final ProcessMemory processMemory;
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private LoadTest(LoadTestOptions options, String baseUrl, HttpClient httpClient, long pid,
+            boolean nativeMemoryTracking) {
+        this.options = options;
+        this.baseUrl = baseUrl;
+        this.httpClient = httpClient;
+        this.processMemory = new ProcessMemory(pid, nativeMemoryTracking, baseUrl, httpClient);
+        stats.put(TrafficMix.IRIS_ENDPOINT, new EndpointStats(TrafficMix.IRIS_ENDPOINT));
+        stats.put(TrafficMix.DETECT_ENDPOINT, new EndpointStats(TrafficMix.DETECT_ENDPOINT));
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = LoadTestOptions.parse(args);
+        var httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+
+        if (options.url() != null) {
+            new LoadTest(options, options.url(), httpClient, options.pid(), false).run();
+            return;
+        }
+        var baseUrl = "http://localhost:" + port(options);
+        var application = startApplication(options, baseUrl, httpClient);
+        try {
+            new LoadTest(options, baseUrl, httpClient, application.pid(), true).run();
+        } finally {
+            application.destroy();
+            if (!application.waitFor(30, TimeUnit.SECONDS)) {
+                application.destroyForcibly();
+            }
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        var mix = TrafficMix.of(options, baseUrl);
+        System.out.printf(Locale.ROOT, "Load test of %s: %s%n", baseUrl, options);
+
+        var startNanos = System.nanoTime();
+        var endNanos = startNanos
+                + TimeUnit.SECONDS.toNanos((long) options.warmupSeconds() + options.durationSeconds());
+        var generators = new ArrayList<Thread>();
+        if (options.mode() == LoadTestOptions.Mode.OPEN) {
+            generators.add(new Thread(() -> openLoop(mix, endNanos), "loadtest-open-loop"));
+        } else {
+            for (int user = 0; user < options.concurrency(); user++) {
+                var userMix = mix.fork(options.seed() + user);
+                generators.add(new Thread(() -> closedLoop(userMix, endNanos), "loadtest-user-" + user));
+            }
+        }
+        generators.forEach(Thread::start);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds()));
+        stats.values().forEach(EndpointStats::reset);
+        var measuredNanos = System.nanoTime();
+        var firstSample = processMemory.sample();
+        var lastSample = firstSample;
+        Files.createDirectories(options.timelinePath().toAbsolutePath().getParent());
+        try (var timeline = new PrintWriter(Files.newBufferedWriter(options.timelinePath(), StandardCharsets.UTF_8))) {
+            timeline.println("elapsed_seconds,endpoint,requests_per_second,p50_ms,p95_ms,p99_ms,p999_ms,max_ms,"
+                    + "error_rate,rss_bytes,nmt_committed_bytes,heap_used_bytes,live_tensor_bytes");
+            var intervalStart = measuredNanos;
+            while (intervalStart < endNanos) {
+                var intervalEnd = Math.min(endNanos, intervalStart + TimeUnit.SECONDS.toNanos(options.reportSeconds()));
+                LockSupport.parkNanos(intervalEnd - System.nanoTime());
+                var seconds = (System.nanoTime() - intervalStart) / NANOS_PER_SECOND;
+                var elapsedSeconds = (System.nanoTime() - measuredNanos) / NANOS_PER_SECOND;
+                lastSample = processMemory.sample();
+                var line = new StringBuilder(String.format(Locale.ROOT, "[%6.0fs]", elapsedSeconds));
+                for (var endpointStats : stats.values()) {
+                    var figures = endpointStats.interval(seconds);
+                    line.append(' ').append(format(endpointStats.endpoint(), figures)).append(" |");
+                    timeline.printf(Locale.ROOT, "%.1f,%s,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.5f,%d,%d,%d,%d%n",
+                            elapsedSeconds, endpointStats.endpoint(), figures.throughput(), figures.p50Millis(),
+                            figures.p95Millis(), figures.p99Millis(), figures.p999Millis(), figures.maxMillis(),
+                            figures.errorRate(), lastSample.rssBytes(), lastSample.nmtCommittedBytes(),
+                            lastSample.heapUsedBytes(), lastSample.liveTensorBytes());
+                }
+                line.append(' ').append(format(lastSample));
+                System.out.println(line);
+                timeline.flush();
+                intervalStart = intervalEnd;
+            }
+        }
+
+        for (var generator : generators) {
+            generator.join();
+        }
+        // the open loop requests still running count in the totals
+        var drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeoutSeconds());
+        while (inFlight.get() > 0 && System.nanoTime() < drainEnd) {
+            Thread.sleep(10);
+        }
+
+        var seconds = (System.nanoTime() - measuredNanos) / NANOS_PER_SECOND;
+        System.out.printf(Locale.ROOT, "Totals over %.0fs (%s loop):%n", seconds,
+                options.mode().name().toLowerCase(Locale.ROOT));
+        for (var endpointStats : stats.values()) {
+            System.out.printf(Locale.ROOT, "  %s, outcomes %s%n", format(endpointStats.endpoint(),
+                    endpointStats.total(seconds)), endpointStats.outcomes());
+        }
+        System.out.printf(Locale.ROOT, "  memory at start: %s%n  memory at end:   %s%n", format(firstSample),
+                format(lastSample));
+        System.out.printf(Locale.ROOT, "  timeline: %s%n", options.timelinePath().toAbsolutePath());
+    }
+
+    /**
+     * Sends at the configured rate whatever the response times, the latency of a
+     * request runs from the time it was meant to be sent.
+     */
+    private void openLoop(TrafficMix mix, long endNanos) {
+        var periodNanos = NANOS_PER_SECOND / options.rate();
+        var startNanos = System.nanoTime();
+        for (long idx = 0;; idx++) {
+            var intendedStart = startNanos + (long) (idx * periodNanos);
+            if (intendedStart >= endNanos) {
+                return;
+            }
+            LockSupport.parkNanos(intendedStart - System.nanoTime());
+
+            var request = mix.next();
+            var endpointStats = stats.get(request.endpoint());
+            if (inFlight.get() >= options.maxInFlight()) {
+                endpointStats.failure("dropped");
+                continue;
+            }
+            inFlight.incrementAndGet();
+            httpClient.sendAsync(request.httpRequest(), BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        inFlight.decrementAndGet();
+                        record(endpointStats, intendedStart, response, error);
+                    });
+        }
+    }
+
+    /**
+     * One user sending its next request once the previous one is answered.
+     */
+    private void closedLoop(TrafficMix mix, long endNanos) {
+        while (System.nanoTime() < endNanos) {
+            var request = mix.next();
+            var endpointStats = stats.get(request.endpoint());
+            var start = System.nanoTime();
+            try {
+                record(endpointStats, start, httpClient.send(request.httpRequest(), BodyHandlers.discarding()), null);
+            } catch (IOException e) {
+                record(endpointStats, start, null, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void record(EndpointStats endpointStats, long startNanos, HttpResponse<?> response,
+            Throwable error) {
+        if (error != null) {
+            var cause = error.getCause() != null ? error.getCause() : error;
+            endpointStats.failure(cause instanceof HttpTimeoutException ? "timeout" : "io");
+        } else if (response.statusCode() == 200) {
+            endpointStats.success(System.nanoTime() - startNanos);
+        } else {
+            endpointStats.failure(Integer.toString(response.statusCode()));
+        }
+    }
+
+    private static Process startApplication(LoadTestOptions options, String baseUrl, HttpClient httpClient)
+            throws IOException, InterruptedException {
+        if (!Files.isRegularFile(options.jar())) {
+            throw new IllegalStateException("No application jar at " + options.jar() + ", package it first");
+        }
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:NativeMemoryTracking=summary");
+        command.add("-jar");
+        command.add(options.jar().toString());
+        command.addAll(options.appArgs());
+        var log = options.timelinePath().toAbsolutePath().resolveSibling("loadtest-application.log");
+        Files.createDirectories(log.getParent());
+        System.out.printf(Locale.ROOT, "Starting %s, output in %s%n", command, log);
+        var application = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+
+        var health = HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/health")).timeout(Duration.ofSeconds(5))
+                .GET().build();
+        var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!application.isAlive()) {
+                throw new IllegalStateException("The application exited with " + application.exitValue()
+                        + ", see " + log);
+            }
+            try {
+                if (httpClient.send(health, BodyHandlers.discarding()).statusCode() == 200) {
+                    return application;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        application.destroyForcibly();
+        throw new IllegalStateException("The application was not healthy after " + STARTUP_TIMEOUT + ", see " + log);
+    }
+
+    private static int port(LoadTestOptions options) {
+        for (var appArg : options.appArgs()) {
+            if (appArg.startsWith("--server.port=")) {
+                return Integer.parseInt(appArg.substring("--server.port=".length()));
+            }
+        }
+        return DEFAULT_PORT;
+    }
+
+    private static String format(String endpoint, EndpointStats.Figures figures) {
+        return String.format(Locale.ROOT,
+                "%s %.1f req/s p50 %.2f p95 %.2f p99 %.2f p99.9 %.2f max %.2f ms errors %.2f%%", endpoint,
+                figures.throughput(), figures.p50Millis(), figures.p95Millis(), figures.p99Millis(),
+                figures.p999Millis(), figures.maxMillis(), figures.errorRate() * 100);
+    }
+
+    private static String format(ProcessMemory.Sample sample) {
+        return String.format(Locale.ROOT, "rss %s nmt %s heap %s tensors %s", megabytes(sample.rssBytes()),
+                megabytes(sample.nmtCommittedBytes()), megabytes(sample.heapUsedBytes()),
+                megabytes(sample.liveTensorBytes()));
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format(Locale.ROOT, "%.1fMB", bytes / (1024d * 1024d));
+    }
+}
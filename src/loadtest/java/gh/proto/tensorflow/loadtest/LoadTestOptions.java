@@ -0,0 +1,104 @@
+package gh.proto.tensorflow.loadtest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a load test run does, from --name=value arguments; every option has a
+ * default so a bare run starts the packaged application and replays the
+ * default mix.
+ *
+ * @param url             the application to load, null to start the packaged
+ *                        jar locally
+ * @param appArgs         extra arguments of the started application, space
+ *                        separated
+ * @param pid             process of an application already running on this
+ *                        host, to sample its memory; 0 when unknown
+ * @param rate            requests per second started in open loop mode, whether
+ *                        or not the previous ones are done
+ * @param concurrency     users in closed loop mode, each sends its next request
+ *                        once the previous one is answered
+ * @param maxInFlight     open loop requests not answered yet above which new
+ *                        ones are counted as dropped instead of sent
+ * @param irisWeight      relative share of /iris-classify requests
+ * @param detectWeight    relative share of /detect-objects requests
+ * @param imageWidths     the beach image is replayed resized to these widths
+ * @param seed            of the request picks, the same seed replays the same
+ *                        sequence
+ * @param timelinePath    CSV of the per report interval figures
+ */
+record LoadTestOptions(String url, Path jar, List<String> appArgs, long pid, Mode mode, int rate, int concurrency,
+        int maxInFlight, int warmupSeconds, int durationSeconds, int reportSeconds, int timeoutSeconds,
+        int irisWeight, int detectWeight, List<Integer> imageWidths, long seed, Path irisData, Path image,
+        Path timelinePath) {
+
+    enum Mode {
+        /**
+         * constant arrival rate, latency is measured from the intended send time so
+         * a stalled server is not hidden by the load generator waiting on it
+         */
+        OPEN,
+        /**
+         * fixed number of users, the arrival rate follows the server
+         */
+        CLOSED
+    }
+
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            var separatorIdx = arg.indexOf('=');
+            values.put(arg.substring(2, separatorIdx), arg.substring(separatorIdx + 1));
+        }
+
+        var options = new LoadTestOptions(values.remove("url"),
+                Path.of(value(values, "jar", "target/tensorflow-0.0.1-SNAPSHOT.jar")),
+                words(value(values, "app-args", "")), Long.parseLong(value(values, "pid", "0")),
+                Mode.valueOf(value(values, "mode", "open").toUpperCase()),
+                Integer.parseInt(value(values, "rate", "100")), Integer.parseInt(value(values, "concurrency", "8")),
+                Integer.parseInt(value(values, "max-in-flight", "1000")),
+                Integer.parseInt(value(values, "warmup-seconds", "10")),
+                Integer.parseInt(value(values, "duration-seconds", "60")),
+                Integer.parseInt(value(values, "report-seconds", "5")),
+                Integer.parseInt(value(values, "timeout-seconds", "30")),
+                Integer.parseInt(value(values, "iris-weight", "90")),
+                Integer.parseInt(value(values, "detect-weight", "10")),
+                Arrays.stream(value(values, "image-widths", "320,640,1280").split(",")).map(String::trim)
+                        .map(Integer::valueOf).toList(),
+                Long.parseLong(value(values, "seed", "1234567")),
+                Path.of(value(values, "iris-data", "src/main/resources/train_data/iris/bezdekIris.data")),
+                Path.of(value(values, "image", "src/main/resources/images/Beachgoers_enjoy_outing_at_the_beach.jpg")),
+                Path.of(value(values, "timeline", "target/loadtest-timeline.csv")));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        if (options.rate < 1 || options.concurrency < 1 || options.durationSeconds < 1 || options.reportSeconds < 1
+                || options.irisWeight < 0 || options.detectWeight < 0
+                || options.irisWeight + options.detectWeight == 0) {
+            throw new IllegalArgumentException("Invalid options " + options);
+        }
+        return options;
+    }
+
+    private static String value(Map<String, String> values, String name, String defaultValue) {
+        var value = values.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static List<String> words(String text) {
+        var words = new ArrayList<String>();
+        for (var word : text.trim().split("\\s+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
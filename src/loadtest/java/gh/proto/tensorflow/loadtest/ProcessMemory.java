@@ -0,0 +1,99 @@
+package gh.proto.tensorflow.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+/**
+ * Samples the memory of the loaded application while the run goes on, so
+ * native memory growth shows up over a long run.
+ * <ul>
+ * <li>RSS: from /proc, only for a process of this host, it includes the
+ * TensorFlow native allocations</li>
+ * <li>NMT committed: the JVM own native memory, only when the application was
+ * started with -XX:NativeMemoryTracking; TensorFlow allocations are not part of
+ * it</li>
+ * <li>heap used and live tensor bytes: from the application actuator
+ * metrics</li>
+ * </ul>
+ * Unknown figures are -1.
+ */
+final class ProcessMemory {
+
+    record Sample(long rssBytes, long nmtCommittedBytes, long heapUsedBytes, long liveTensorBytes) {
+    };
+
+    private static final Pattern RSS = Pattern.compile("VmRSS:\\s+(\\d+) kB");
+    private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=\\d+KB, committed=(\\d+)KB");
+    private static final Pattern METRIC_VALUE = Pattern.compile("\"statistic\":\"VALUE\",\"value\":([-0-9.E]+)");
+
+    private final long pid;
+    private final boolean nativeMemoryTracking;
+    private final String baseUrl;
+    private final HttpClient httpClient;
+
+    ProcessMemory(long pid, boolean nativeMemoryTracking, String baseUrl, HttpClient httpClient) {
+        this.pid = pid;
+        this.nativeMemoryTracking = nativeMemoryTracking;
+        this.baseUrl = baseUrl;
+        this.httpClient = httpClient;
+    }
+
+    Sample sample() {
+        return new Sample(rssBytes(), nmtCommittedBytes(), metric("jvm.memory.used?tag=area:heap"),
+                metric("tensorflow.tensors.live"));
+    }
+
+    private long rssBytes() {
+        var status = Path.of("/proc", Long.toString(pid), "status");
+        if (pid <= 0 || !Files.isReadable(status)) {
+            return -1;
+        }
+        try {
+            var matcher = RSS.matcher(Files.readString(status, StandardCharsets.UTF_8));
+            return matcher.find() ? Long.parseLong(matcher.group(1)) * 1024 : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private long nmtCommittedBytes() {
+        if (pid <= 0 || !nativeMemoryTracking) {
+            return -1;
+        }
+        try {
+            var jcmd = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "jcmd").toString(),
+                    Long.toString(pid), "VM.native_memory", "summary").redirectErrorStream(true).start();
+            var output = new String(jcmd.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            jcmd.waitFor();
+            var matcher = NMT_TOTAL.matcher(output);
+            return matcher.find() ? Long.parseLong(matcher.group(1)) * 1024 : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private long metric(String metric) {
+        try {
+            var response = httpClient.send(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/metrics/" + metric))
+                    .timeout(Duration.ofSeconds(5)).GET().build(), BodyHandlers.ofString());
+            var matcher = METRIC_VALUE.matcher(response.body());
+            return response.statusCode() == 200 && matcher.find() ? (long) Double.parseDouble(matcher.group(1)) : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+}
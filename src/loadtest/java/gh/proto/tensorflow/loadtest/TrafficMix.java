@@ -0,0 +1,109 @@
+package gh.proto.tensorflow.loadtest;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The requests replayed against the application, built once before the run:
+ * one /iris-classify request per row of the iris data and one /detect-objects
+ * request per width of the resized beach image.
+ * <p>
+ * Requests are picked by endpoint weight then uniformly within the endpoint,
+ * with a seeded random so a run is reproducible.
+ */
+final class TrafficMix {
+
+    static final String IRIS_ENDPOINT = "iris-classify";
+    static final String DETECT_ENDPOINT = "detect-objects";
+
+    record Request(String endpoint, String variant, HttpRequest httpRequest) {
+    };
+
+    private final List<Request> irisRequests;
+    private final List<Request> detectRequests;
+    private final int irisWeight;
+    private final int totalWeight;
+    private final Random random;
+
+    private TrafficMix(List<Request> irisRequests, List<Request> detectRequests, int irisWeight, int detectWeight,
+            long seed) {
+        this.irisRequests = irisRequests;
+        this.detectRequests = detectRequests;
+        this.irisWeight = irisWeight;
+        this.totalWeight = irisWeight + detectWeight;
+        this.random = new Random(seed);
+    }
+
+    static TrafficMix of(LoadTestOptions options, String baseUrl) throws IOException {
+        var timeout = Duration.ofSeconds(options.timeoutSeconds());
+
+        var irisRequests = new ArrayList<Request>();
+        for (var line : Files.readAllLines(options.irisData())) {
+            var fields = line.split(",");
+            if (fields.length < 4) {
+                continue;
+            }
+            var uri = URI.create(String.format(Locale.ROOT,
+                    "%s/tensorflow/iris-classify?sepalLength=%s&sepalWidth=%s&petalLength=%s&petalWidth=%s", baseUrl,
+                    fields[0].trim(), fields[1].trim(), fields[2].trim(), fields[3].trim()));
+            irisRequests.add(new Request(IRIS_ENDPOINT, "row", HttpRequest.newBuilder(uri).timeout(timeout).GET()
+                    .build()));
+        }
+
+        var detectRequests = new ArrayList<Request>();
+        var image = ImageIO.read(options.image().toFile());
+        for (var width : options.imageWidths()) {
+            var imageBytes = resizedJpeg(image, width);
+            var uri = URI.create(baseUrl + "/tensorflow/detect-objects");
+            detectRequests.add(new Request(DETECT_ENDPOINT, width + "px", HttpRequest.newBuilder(uri)
+                    .timeout(timeout).header("Content-Type", "application/octet-stream")
+                    .POST(BodyPublishers.ofByteArray(imageBytes)).build()));
+        }
+
+        return new TrafficMix(irisRequests, detectRequests, options.irisWeight(), options.detectWeight(),
+                options.seed());
+    }
+
+    /**
+     * Called from the single thread issuing the requests.
+     */
+    Request next() {
+        var requests = random.nextInt(totalWeight) < irisWeight ? irisRequests : detectRequests;
+        return requests.get(random.nextInt(requests.size()));
+    }
+
+    /**
+     * @return a fresh mix of the same requests, for a closed loop user
+     */
+    TrafficMix fork(long seed) {
+        return new TrafficMix(irisRequests, detectRequests, irisWeight, totalWeight - irisWeight, seed);
+    }
+
+    private static byte[] resizedJpeg(BufferedImage image, int width) throws IOException {
+        var height = Math.max(1, Math.round((float) image.getHeight() * width / image.getWidth()));
+        var resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        var jpeg = new ByteArrayOutputStream();
+        ImageIO.write(resized, "jpg", jpeg);
+        return jpeg.toByteArray();
+    }
+}
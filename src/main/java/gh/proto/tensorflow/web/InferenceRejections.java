@@ -0,0 +1,33 @@
+package gh.proto.tensorflow.web;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import gh.proto.tensorflow.work.InferenceRejectedException;
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+
+/**
+ * Answers the shed model calls of all the controllers.
+ */
+@RestControllerAdvice
+public class InferenceRejections {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * 429 when the model queue is full, 503 when the call can't start within
+     * the queue wait budget or the memory budget, or the application is
+     * stopping.
+     */
+    @ExceptionHandler(InferenceRejectedException.class)
+    public ResponseEntity<String> inferenceRejected(InferenceRejectedException e) {
+
+        var status = e.reason() == Reason.QUEUE_FULL ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+}
@@ -0,0 +1,74 @@
+package gh.proto.tensorflow.web;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.IrisHyperparameterSweep.SearchSpace;
+import gh.proto.tensorflow.work.IrisTrainingJobs;
+import gh.proto.tensorflow.work.IrisTrainingJobs.JobStatus;
+
+@RestController
+@RequestMapping("/tensorflow/iris-training")
+public class IrisTrainingController {
+
+    @Autowired
+    private IrisTrainingJobs irisTrainingJobs;
+
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public JobStatus submit(@RequestParam Optional<Boolean> warmStart) {
+
+        return warmStart.map(irisTrainingJobs::submit).orElseGet(irisTrainingJobs::submit);
+    }
+
+    /**
+     * Sweep jobs share the status and cancel endpoints of the training jobs.
+     */
+    @PostMapping(path = "/sweeps", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public JobStatus submitSweep(@RequestBody SearchSpace space) {
+
+        try {
+            return irisTrainingJobs.submitSweep(space);
+        } catch (ProtoWorkException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<JobStatus> statuses() {
+
+        return irisTrainingJobs.statuses();
+    }
+
+    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public JobStatus status(@PathVariable String id) {
+
+        return irisTrainingJobs.status(id).orElseThrow(() -> unknownJob(id));
+    }
+
+    @DeleteMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public JobStatus cancel(@PathVariable String id) {
+
+        return irisTrainingJobs.cancel(id).orElseThrow(() -> unknownJob(id));
+    }
+
+    private static ResponseStatusException unknownJob(String id) {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown training job: " + id);
+    }
+}
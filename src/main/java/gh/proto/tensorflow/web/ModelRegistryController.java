@@ -0,0 +1,90 @@
+package gh.proto.tensorflow.web;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import gh.proto.tensorflow.work.InferenceExecutor;
+import gh.proto.tensorflow.work.ModelInputException;
+import gh.proto.tensorflow.work.ModelRegistry;
+import gh.proto.tensorflow.work.ModelRegistry.ModelStatus;
+import gh.proto.tensorflow.work.ModelRegistry.SignatureSpec;
+import gh.proto.tensorflow.work.ModelRegistry.TensorValue;
+
+/**
+ * Generic calls of the models of the {@link ModelRegistry}: the body maps the
+ * signature inputs to their shape and flat values, the answer maps the outputs
+ * the same way, e.g.
+ *
+ * <pre>
+ * {"inputs": {"shape": [1, 4], "values": [5.1, 3.5, 1.4, 0.2]}}
+ * </pre>
+ */
+@RestController
+@RequestMapping("/tensorflow/models")
+public class ModelRegistryController {
+
+    @Autowired
+    private ModelRegistry modelRegistry;
+
+    @Autowired
+    private InferenceExecutor inferenceExecutor;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<ModelStatus> statuses() {
+
+        return modelRegistry.statuses();
+    }
+
+    /**
+     * Loads the model when not loaded.
+     */
+    @GetMapping(path = "/{model}/signatures", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<SignatureSpec> signatures(@PathVariable String model) {
+
+        checkRegistered(model);
+        return modelRegistry.signatures(model);
+    }
+
+    /**
+     * Runs on the lane of the model in the {@link InferenceExecutor}; signature
+     * defaults to serving_default. Inputs that don't match the signature answer
+     * 400, a model that can't be loaded 500.
+     */
+    @PostMapping(path = "/{model}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<Map<String, TensorValue>> call(@PathVariable String model,
+            @RequestParam Optional<String> signature, @RequestBody Map<String, TensorValue> inputs) {
+
+        checkRegistered(model);
+        var signatureKey = signature.orElse("serving_default");
+        return inferenceExecutor.submit(model, () -> modelRegistry.call(model, signatureKey, inputs))
+                .exceptionally(e -> {
+                    var cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof ModelInputException) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, cause.getMessage(), cause);
+                    }
+                    throw e instanceof CompletionException completionException ? completionException
+                            : new CompletionException(e);
+                });
+    }
+
+    private void checkRegistered(String model) {
+        if (!modelRegistry.contains(model)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown model: " + model);
+        }
+    }
+}
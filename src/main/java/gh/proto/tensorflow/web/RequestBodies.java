@@ -0,0 +1,77 @@
+package gh.proto.tensorflow.web;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Reads raw request bodies without the intermediate growing buffers of the
+ * generic byte[] body conversion.
+ * <p>
+ * With a Content-Length the body is read straight into an array of its exact
+ * size. Without one (chunked uploads) it is collected in a buffer reused by the
+ * request thread and copied once to its exact size. The array is what the
+ * string tensor copies the image from, TF Java takes no other source.
+ */
+final class RequestBodies {
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    // bigger buffers are not kept, so idle request threads don't hold big images
+    private static final int MAX_RETAINED_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> REUSABLE_BUFFER = ThreadLocal
+            .withInitial(() -> new byte[INITIAL_BUFFER_BYTES]);
+
+    private RequestBodies() {
+    }
+
+    static byte[] read(HttpServletRequest request, long maxBytes) throws IOException {
+        var contentLength = request.getContentLengthLong();
+        if (contentLength > maxBytes) {
+            throw tooLarge(maxBytes);
+        }
+        try (var input = request.getInputStream()) {
+            if (contentLength >= 0) {
+                var body = new byte[(int) contentLength];
+                if (input.readNBytes(body, 0, body.length) != body.length) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "Request body is shorter than its Content-Length");
+                }
+                return body;
+            }
+
+            var buffer = REUSABLE_BUFFER.get();
+            var length = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    if (length > maxBytes) {
+                        throw tooLarge(maxBytes);
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxBytes + 1));
+                    if (buffer.length <= MAX_RETAINED_BUFFER_BYTES) {
+                        REUSABLE_BUFFER.set(buffer);
+                    }
+                }
+                var read = input.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            if (length > maxBytes) {
+                throw tooLarge(maxBytes);
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    private static ResponseStatusException tooLarge(long maxBytes) {
+        return new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                "Request body is larger than " + maxBytes + " bytes");
+    }
+}
@@ -1,37 +1,255 @@
 package gh.proto.tensorflow.web;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.ImageClassifier;
+import gh.proto.tensorflow.work.ImageClassifier.ImageClass;
+import gh.proto.tensorflow.work.InferenceExecutor;
+import gh.proto.tensorflow.work.IrisClassificationBatcher;
 import gh.proto.tensorflow.work.IrisClassifier;
+import gh.proto.tensorflow.work.IrisPredictionCache;
+import gh.proto.tensorflow.work.ObjectDetectionPipeline;
 import gh.proto.tensorflow.work.ObjectDetector;
+import gh.proto.tensorflow.work.ObjectDetector.DetectionFilter;
+import gh.proto.tensorflow.work.ObjectDetector.ObjectBox;
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 @RequestMapping("/tensorflow")
 public class TensorFlowController {
 
+    private static final String NDJSON_SEPARATOR = "\n";
+
+    static final String PACKED_DETECTIONS_VALUE = "application/x-detections-f32le";
+    private static final MediaType PACKED_DETECTIONS = MediaType.parseMediaType(PACKED_DETECTIONS_VALUE);
+    private static final int PACKED_BOX_BYTES = 6 * Float.BYTES;
+
+    /**
+     * same limit as the multipart uploads
+     */
+    @Value("${spring.servlet.multipart.max-file-size:20MB}")
+    private DataSize maxImageSize;
+
+    @Autowired
+    private InferenceExecutor inferenceExecutor;
+
     @Autowired
     private ObjectDetector objectDetector;
 
+    @Autowired
+    private ObjectDetectionPipeline objectDetectionPipeline;
+
+    @Value("${tensorflow.objectdetection.pipeline.batch-timeout-millis:600000}")
+    private long batchTimeoutMillis;
+
+    @Autowired
+    private ImageClassifier imageClassifier;
+
     @Autowired
     private IrisClassifier irisClassifier;
 
-    @PostMapping(path = "/detect-objects", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public byte[] detectObjects(@RequestBody byte[] imageBytes) {
+    @Autowired
+    private IrisClassificationBatcher irisClassificationBatcher;
+
+    @Autowired
+    private IrisPredictionCache irisPredictionCache;
+
+    /**
+     * The boxes as the text of the box list by default, or packed when the
+     * Accept header asks for {@value #PACKED_DETECTIONS_VALUE}: per box, 6
+     * little-endian floats class, score, ymin, xmin, ymax, xmax.
+     * <p>
+     * minScore and maxDetections default to the configured ones, classes (class
+     * indices) to all the classes.
+     */
+    @PostMapping(path = "/detect-objects", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = {
+            MediaType.APPLICATION_OCTET_STREAM_VALUE, PACKED_DETECTIONS_VALUE })
+    public CompletableFuture<ResponseEntity<byte[]>> detectObjects(HttpServletRequest request,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestParam Optional<Float> minScore, @RequestParam Optional<Integer> maxDetections,
+            @RequestParam Optional<List<Integer>> classes) throws IOException {
+
+        var filter = filter(minScore, maxDetections, classes);
+        var imageBytes = RequestBodies.read(request, maxImageSize.toBytes());
+        if (acceptsPackedDetections(accept)) {
+            return inferenceExecutor
+                    .submit(ObjectDetector.MODEL_NAME, () -> objectDetector.detectBoxes(imageBytes, filter))
+                    .thenApply(boxes -> ResponseEntity.ok().contentType(PACKED_DETECTIONS).body(pack(boxes)));
+        }
+        return inferenceExecutor.submit(ObjectDetector.MODEL_NAME, () -> objectDetector.detect(imageBytes, filter))
+                .thenApply(text -> ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(text));
+    }
+
+    /**
+     * One line of JSON per image, written as soon as that image is done; the
+     * order follows completion, use the index to match the request parts.
+     */
+    record ImageDetection(int index, String name, List<ObjectBox> boxes, String error) {
+    };
+
+    @PostMapping(path = "/detect-objects/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter detectObjectsBatch(@RequestPart("images") List<MultipartFile> images,
+            @RequestParam Optional<Float> minScore, @RequestParam Optional<Integer> maxDetections,
+            @RequestParam Optional<List<Integer>> classes) throws IOException {
+
+        var filter = filter(minScore, maxDetections, classes);
+        var emitter = new ResponseBodyEmitter(batchTimeoutMillis);
+        var detections = new ArrayList<CompletableFuture<?>>(images.size());
+        for (int index = 0; index < images.size(); index++) {
+            var imageIndex = index;
+            var image = images.get(index);
+            detections.add(objectDetectionPipeline.submit(image.getBytes(), filter).handle((boxes, e) -> {
+                var cause = e instanceof CompletionException ? e.getCause() : e;
+                var detection = new ImageDetection(imageIndex, image.getOriginalFilename(),
+                        cause == null ? boxes : List.of(), cause == null ? null : String.valueOf(cause.getMessage()));
+                try {
+                    synchronized (emitter) {
+                        emitter.send(detection, MediaType.APPLICATION_JSON);
+                        emitter.send(NDJSON_SEPARATOR, MediaType.APPLICATION_NDJSON);
+                    }
+                } catch (IOException sendException) {
+                    emitter.completeWithError(sendException);
+                }
+                return detection;
+            }));
+        }
+        CompletableFuture.allOf(detections.toArray(CompletableFuture[]::new))
+                .whenComplete((ignored, e) -> emitter.complete());
+
+        return emitter;
+    }
+
+    @PostMapping(path = "/classify-image", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<List<ImageClass>> classifyImage(HttpServletRequest request,
+            @RequestParam Optional<Integer> k) throws IOException {
 
-        return objectDetector.detect(imageBytes);
+        var topK = topK(k);
+        var imageBytes = RequestBodies.read(request, maxImageSize.toBytes());
+        return inferenceExecutor.submit(ImageClassifier.MODEL_NAME, () -> imageClassifier.classify(imageBytes, topK));
+    }
+
+    /**
+     * The classes of one image of a batch, in request part order.
+     */
+    record ImageClassification(int index, String name, List<ImageClass> classes) {
+    };
+
+    @PostMapping(path = "/classify-image/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<List<ImageClassification>> classifyImageBatch(
+            @RequestPart("images") List<MultipartFile> images, @RequestParam Optional<Integer> k) throws IOException {
+
+        var topK = topK(k);
+        if (images.size() > imageClassifier.maxBatchSize()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + imageClassifier.maxBatchSize()
+                    + " images are classified together, got " + images.size());
+        }
+        var imageBytes = new ArrayList<byte[]>(images.size());
+        for (var image : images) {
+            imageBytes.add(image.getBytes());
+        }
+        var names = images.stream().map(MultipartFile::getOriginalFilename).toList();
+
+        return inferenceExecutor.submit(ImageClassifier.MODEL_NAME, () -> imageClassifier.classify(imageBytes, topK))
+                .thenApply(imageClasses -> {
+                    var classifications = new ArrayList<ImageClassification>(names.size());
+                    for (int index = 0; index < names.size(); index++) {
+                        classifications.add(new ImageClassification(index, names.get(index), imageClasses.get(index)));
+                    }
+                    return classifications;
+                });
     }
 
     @GetMapping(path = "/iris-classify", produces = MediaType.TEXT_PLAIN_VALUE)
-    public String irisClassify(@RequestParam float sepalLength, @RequestParam float sepalWidth,
+    public CompletableFuture<String> irisClassify(@RequestParam float sepalLength, @RequestParam float sepalWidth,
             @RequestParam float petalLength, @RequestParam float petalWidth) {
 
-        return irisClassifier.classify(sepalLength, sepalWidth, petalLength, petalWidth);
+        var cachedSpecies = irisPredictionCache.get(sepalLength, sepalWidth, petalLength, petalWidth);
+        if (cachedSpecies != null) {
+            return CompletableFuture.completedFuture(cachedSpecies);
+        }
+        var cacheGeneration = irisPredictionCache.generation();
+        return irisClassificationBatcher.submit(sepalLength, sepalWidth, petalLength, petalWidth).thenApply(species -> {
+            irisPredictionCache.put(sepalLength, sepalWidth, petalLength, petalWidth, species, cacheGeneration);
+            return species;
+        });
+    }
+
+    @GetMapping(path = "/iris-cache/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+    public IrisPredictionCache.Stats irisCacheStats() {
+
+        return irisPredictionCache.stats();
+    }
+
+    @PostMapping(path = "/iris-model/reload", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String irisModelReload() {
+
+        return irisClassifier.reload();
+    }
+
+    /**
+     * @return the filter of the request parameters, a bad one answers 400
+     */
+    private DetectionFilter filter(Optional<Float> minScore, Optional<Integer> maxDetections,
+            Optional<List<Integer>> classes) {
+        try {
+            return objectDetector.filter(minScore.orElse(null), maxDetections.orElse(null), classes.orElse(null));
+        } catch (ProtoWorkException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return k or the configured one, checked before the call is queued
+     */
+    private int topK(Optional<Integer> k) {
+        try {
+            return imageClassifier.topK(k.orElse(null));
+        } catch (ProtoWorkException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    private static boolean acceptsPackedDetections(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        return MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(PACKED_DETECTIONS)
+                        && mediaType.getQualityValue() > 0);
+    }
+
+    private static byte[] pack(List<ObjectBox> boxes) {
+        var packed = ByteBuffer.allocate(boxes.size() * PACKED_BOX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (var box : boxes) {
+            packed.putFloat(box.idx()).putFloat(box.score()).putFloat(box.ymin()).putFloat(box.xmin())
+                    .putFloat(box.ymax()).putFloat(box.xmax());
+        }
+        return packed.array();
     }
 }
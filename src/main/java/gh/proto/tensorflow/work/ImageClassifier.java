@@ -0,0 +1,305 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tensorflow.Graph;
+import org.tensorflow.Result;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.ndarray.NdArrays;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.op.Ops;
+import org.tensorflow.op.core.Placeholder;
+import org.tensorflow.op.image.DecodeImage;
+import org.tensorflow.op.math.Div;
+import org.tensorflow.op.nn.TopK;
+import org.tensorflow.types.TFloat32;
+import org.tensorflow.types.TInt32;
+import org.tensorflow.types.TString;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Whole image classification with the MobileNetV2 model, a cheaper first pass
+ * than the object detection.
+ * <p>
+ * Decode, resize and normalization run in a graph built once at startup and
+ * so do the softmax and the top-k selection of the classes: the 1001 logits
+ * per image stay in native tensors and only k (class, score) pairs per image
+ * are read in Java.
+ */
+@Component
+public class ImageClassifier {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    public static final String MODEL_NAME = "imageclassification";
+
+    public record ImageClass(int idx, String label, float score) {
+    };
+
+    private static final String SIGNATURE_INPUT = "inputs";
+    private static final String SIGNATURE_OUTPUT = "logits";
+
+    // the model expects RGB values in [0, 1]
+    private static final float MAX_CHANNEL_VALUE = 255f;
+    private static final int CHANNELS = 3;
+
+    @Value("${tensorflow.imageclassification.path}")
+    private String modelPath;
+
+    /**
+     * one class name per line, in output index order: background first, then
+     * the 1000 ImageNet classes; classes have no label when not set
+     */
+    @Value("${tensorflow.imageclassification.labels-path:}")
+    private String labelsPath;
+
+    /**
+     * the images are resized to a square of this side, the input size the model
+     * was trained with
+     */
+    @Value("${tensorflow.imageclassification.image-size:128}")
+    private int imageSize;
+
+    @Value("${tensorflow.imageclassification.top-k:5}")
+    private int defaultTopK;
+
+    /**
+     * images of one model call, they are decoded into a single [n, size, size,
+     * 3] float tensor
+     */
+    @Value("${tensorflow.imageclassification.max-batch-size:32}")
+    private int maxBatchSize;
+
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    @Autowired
+    private ModelExecutionProfiles executionProfiles;
+
+    private SavedModelBundle model;
+
+    private List<String> labels = List.of();
+
+    // encoded image bytes -> decoded uint8 image -> [1, size, size, 3] floats in
+    // [0, 1]
+    private Graph preprocessingGraph;
+    private Session preprocessingSession;
+    private Placeholder<TString> imageBytesPlaceholder;
+    private Div<TFloat32> modelInput;
+
+    // [n, classes] logits -> softmax -> k best scores and class indices per row
+    private Graph topKGraph;
+    private Session topKSession;
+    private Placeholder<TFloat32> logitsPlaceholder;
+    private Placeholder<TInt32> kPlaceholder;
+    private TopK<TFloat32, TInt32> topK;
+
+    private ModelMetrics metrics;
+    private Timer decodeTimer;
+    private Timer inferTimer;
+    private Timer topKTimer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        metrics = inferenceMetrics.model(MODEL_NAME);
+        decodeTimer = metrics.stage("decode");
+        inferTimer = metrics.stage("infer");
+        topKTimer = metrics.stage("topk");
+
+        model = executionProfiles.load(MODEL_NAME, modelPath, this::syntheticCall);
+
+        logger.info("TensorFlow model functions: [{}]", model.signatures());
+
+        if (!labelsPath.isBlank()) {
+            labels = Files.readAllLines(Path.of(labelsPath));
+        }
+
+        preprocessingGraph = new Graph();
+        Ops tensorFlowApi = Ops.create(preprocessingGraph);
+        imageBytesPlaceholder = tensorFlowApi.placeholder(TString.class, Placeholder.shape(Shape.scalar()));
+        DecodeImage.Options[] options = { DecodeImage.channels((long) CHANNELS),
+                DecodeImage.expandAnimations(false) };
+        var decodeImage = tensorFlowApi.image.decodeImage(imageBytesPlaceholder, options);
+        var resizedImage = tensorFlowApi.image.resizeBilinear(tensorFlowApi.expandDims(decodeImage,
+                tensorFlowApi.constant(0)), tensorFlowApi.constant(new int[] { imageSize, imageSize }));
+        modelInput = tensorFlowApi.math.div(resizedImage, tensorFlowApi.constant(MAX_CHANNEL_VALUE));
+        preprocessingSession = new Session(preprocessingGraph, executionProfiles.configProto(MODEL_NAME));
+
+        buildTopK();
+    }
+
+    private void buildTopK() {
+        topKGraph = new Graph();
+        Ops tensorFlowApi = Ops.create(topKGraph);
+        logitsPlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.of(-1, -1)));
+        kPlaceholder = tensorFlowApi.placeholder(TInt32.class, Placeholder.shape(Shape.scalar()));
+        TopK.Options[] topKOptions = { TopK.sorted(true) };
+        topK = tensorFlowApi.nn.topK(tensorFlowApi.nn.softmax(logitsPlaceholder), kPlaceholder, topKOptions);
+        topKSession = new Session(topKGraph, executionProfiles.configProto(MODEL_NAME));
+    }
+
+    @PreDestroy
+    public void clean() {
+        topKSession.close();
+        topKGraph.close();
+        preprocessingSession.close();
+        preprocessingGraph.close();
+        model.close();
+    }
+
+    /**
+     * @param k the number of classes to answer per image, the default when null
+     * @throws ProtoWorkException when k is under 1
+     */
+    public int topK(Integer k) {
+        if (k == null) {
+            return defaultTopK;
+        }
+        if (k < 1) {
+            throw new ProtoWorkException("k must be at least 1, got " + k);
+        }
+        return k;
+    }
+
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public List<ImageClass> classify(byte[] imageData, int k) {
+        return classify(List.of(imageData), k).get(0);
+    }
+
+    /**
+     * Classifies several images with a single model call.
+     *
+     * @return the k most likely classes of each image, most likely first
+     */
+    public List<List<ImageClass>> classify(List<byte[]> images, int k) {
+        if (images.isEmpty()) {
+            return List.of();
+        }
+        if (images.size() > maxBatchSize) {
+            throw new ProtoWorkException(
+                    "At most " + maxBatchSize + " images are classified together, got " + images.size());
+        }
+        k = topK(k);
+        var batch = decode(images);
+        try {
+            var logits = infer(batch);
+            try {
+                return topK(logits, k);
+            } finally {
+                metrics.close(logits);
+            }
+        } finally {
+            metrics.close(batch);
+        }
+    }
+
+    /**
+     * @return the [n, size, size, 3] model input
+     */
+    private TFloat32 decode(List<byte[]> images) {
+        var decodeStart = System.nanoTime();
+        var batch = metrics.allocated(TFloat32.tensorOf(Shape.of(images.size(), imageSize, imageSize, CHANNELS)));
+        try {
+            for (int row = 0; row < images.size(); row++) {
+                var imageBytesTensor = metrics
+                        .allocated(TString.tensorOfBytes(NdArrays.scalarOfObject(images.get(row))));
+                try {
+                    var preprocessingResult = metrics.allocated(preprocessingSession.runner()
+                            .feed(imageBytesPlaceholder, imageBytesTensor).fetch(modelInput).run());
+                    try {
+                        // native to native copy into the batch row
+                        ((TFloat32) preprocessingResult.get(0)).get(0).copyTo(batch.get(row));
+                    } finally {
+                        metrics.close(preprocessingResult);
+                    }
+                } finally {
+                    metrics.close(imageBytesTensor);
+                }
+            }
+        } catch (RuntimeException e) {
+            metrics.close(batch);
+            throw e;
+        }
+        decodeTimer.record(System.nanoTime() - decodeStart, TimeUnit.NANOSECONDS);
+        return batch;
+    }
+
+    private Result infer(TFloat32 batch) {
+        var inferStart = metrics.callStarted();
+        var failed = true;
+        try {
+            Map<String, Tensor> feedDict = Map.of(SIGNATURE_INPUT, batch);
+            var logits = metrics.allocated(model.function("serving_default").call(feedDict));
+            failed = false;
+            return logits;
+        } finally {
+            metrics.callDone(inferTimer, inferStart, failed);
+        }
+    }
+
+    /**
+     * Runs the model on a black image, without the metrics of the real calls.
+     */
+    private void syntheticCall(SavedModelBundle bundle) {
+        try (var image = TFloat32.tensorOf(Shape.of(1, imageSize, imageSize, CHANNELS))) {
+            // only the run matters
+            bundle.function("serving_default").call(Map.of(SIGNATURE_INPUT, image)).close();
+        }
+    }
+
+    private List<List<ImageClass>> topK(Result logits, int k) {
+        var topKStart = System.nanoTime();
+        var modelOutput = logits.get(SIGNATURE_OUTPUT)
+                .orElseThrow(() -> new ProtoWorkException("Model output " + SIGNATURE_OUTPUT + " is missing"));
+        var rows = (int) modelOutput.shape().get(0);
+        // k can't exceed the number of classes
+        k = (int) Math.min(k, modelOutput.shape().get(1));
+        var imageClasses = new ArrayList<List<ImageClass>>(rows);
+        var kTensor = metrics.allocated(TInt32.scalarOf(k));
+        try {
+            var topKResult = metrics.allocated(topKSession.runner().feed(logitsPlaceholder, modelOutput)
+                    .feed(kPlaceholder, kTensor).fetch(topK.values()).fetch(topK.indices()).run());
+            try {
+                var scores = (TFloat32) topKResult.get(0);
+                var indices = (TInt32) topKResult.get(1);
+                for (int row = 0; row < rows; row++) {
+                    var rowClasses = new ArrayList<ImageClass>(k);
+                    for (int rank = 0; rank < k; rank++) {
+                        var idx = indices.getInt(row, rank);
+                        rowClasses.add(new ImageClass(idx, idx < labels.size() ? labels.get(idx) : null,
+                                scores.getFloat(row, rank)));
+                    }
+                    logger.debug("Image classes: [{}]", rowClasses);
+                    imageClasses.add(rowClasses);
+                }
+            } finally {
+                metrics.close(topKResult);
+            }
+        } finally {
+            metrics.close(kTensor);
+        }
+        topKTimer.record(System.nanoTime() - topKStart, TimeUnit.NANOSECONDS);
+        return imageClasses;
+    }
+}
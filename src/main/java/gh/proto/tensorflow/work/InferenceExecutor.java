@@ -0,0 +1,249 @@
+package gh.proto.tensorflow.work;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs the model calls of each model on its own small pool, so the number of
+ * concurrent native session runs per model is bounded and the request threads
+ * are not held while a call waits or runs.
+ * <p>
+ * Admission control, per model:
+ * <ul>
+ * <li>a call is rejected with {@link Reason#QUEUE_FULL} when the queue of the
+ * model is full</li>
+ * <li>a call is rejected right away with {@link Reason#QUEUE_TIMEOUT} when the
+ * calls queued ahead of it, at the recent mean run time, would make it wait
+ * longer than the queue wait budget</li>
+ * <li>a queued call whose wait went over the budget is dropped when dequeued,
+ * without running it</li>
+ * </ul>
+ * Background work such as the batch detections uses
+ * {@link #submitWaiting(String, Supplier)} instead: its calls wait for room in
+ * the lane and are not held to the queue wait budget, so the work slows down
+ * to the model speed instead of failing.
+ * <p>
+ * Limits are read from tensorflow.inference.models.[model].*, falling back to
+ * tensorflow.inference.defaults.*.
+ */
+@Component
+public class InferenceExecutor {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private static final String PROPERTY_PREFIX = "tensorflow.inference.";
+
+    // weight of the last run in the mean run time
+    private static final double RUN_TIME_SMOOTHING = 0.2;
+
+    // a waiting call finding the queue full of interactive calls retries after
+    // this, the queue drains at the model speed
+    private static final long QUEUE_FULL_RETRY_MILLIS = 10;
+
+    private final class ModelLane {
+
+        private final String model;
+        private final int maxConcurrency;
+        private final long maxQueueWaitNanos;
+        private final ThreadPoolExecutor executor;
+        private final ModelMetrics metrics;
+        private final Timer queueTimer;
+        // waiting calls queued or running, at most max-concurrency of them
+        private final Semaphore waitingCalls;
+        private volatile double meanRunNanos;
+
+        private ModelLane(String model) {
+            this.model = model;
+            maxConcurrency = limit(model, "max-concurrency", 2);
+            var queueCapacity = limit(model, "queue-capacity", 64);
+            maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(limit(model, "max-queue-wait-millis", 500));
+            metrics = inferenceMetrics.model(model);
+            queueTimer = metrics.stage("queue");
+            waitingCalls = new Semaphore(maxConcurrency);
+
+            var threadIdx = new AtomicInteger();
+            executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                        var thread = new InferenceThread(runnable, model + "-inference-" + threadIdx.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+            logger.info("Inference lane [{}]: max concurrency [{}], queue capacity [{}], max queue wait [{}]ms", model,
+                    maxConcurrency, queueCapacity, TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos));
+        }
+
+        private <T> CompletableFuture<T> submit(Supplier<T> call) {
+            var result = new CompletableFuture<T>();
+            var expectedWaitNanos = executor.getQueue().size() * meanRunNanos / maxConcurrency;
+            if (expectedWaitNanos > maxQueueWaitNanos) {
+                return reject(result, Reason.QUEUE_TIMEOUT, "Model " + model + " is too busy, expected queue wait "
+                        + TimeUnit.NANOSECONDS.toMillis((long) expectedWaitNanos) + "ms");
+            }
+            var enqueuedAt = System.nanoTime();
+            try {
+                executor.execute(() -> run(call, result, enqueuedAt, true));
+            } catch (RejectedExecutionException e) {
+                if (executor.isShutdown()) {
+                    return reject(result, Reason.STOPPED, "Model " + model + " is stopped");
+                }
+                return reject(result, Reason.QUEUE_FULL, "Model " + model + " queue is full");
+            }
+            return result;
+        }
+
+        private <T> CompletableFuture<T> submitWaiting(Supplier<T> call) {
+            var result = new CompletableFuture<T>();
+            try {
+                waitingCalls.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return reject(result, Reason.STOPPED, "Model " + model + " call interrupted");
+            }
+            while (true) {
+                var enqueuedAt = System.nanoTime();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            run(call, result, enqueuedAt, false);
+                        } finally {
+                            waitingCalls.release();
+                        }
+                    });
+                    return result;
+                } catch (RejectedExecutionException e) {
+                    if (executor.isShutdown()) {
+                        waitingCalls.release();
+                        return reject(result, Reason.STOPPED, "Model " + model + " is stopped");
+                    }
+                }
+                try {
+                    Thread.sleep(QUEUE_FULL_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    waitingCalls.release();
+                    return reject(result, Reason.STOPPED, "Model " + model + " call interrupted");
+                }
+            }
+        }
+
+        /**
+         * @param budgeted whether a call waiting longer than the queue wait budget
+         *                 is dropped
+         */
+        private <T> void run(Supplier<T> call, CompletableFuture<T> result, long enqueuedAt, boolean budgeted) {
+            var startedAt = System.nanoTime();
+            var queueWaitNanos = startedAt - enqueuedAt;
+            queueTimer.record(queueWaitNanos, TimeUnit.NANOSECONDS);
+            if (budgeted && queueWaitNanos > maxQueueWaitNanos) {
+                reject(result, Reason.QUEUE_TIMEOUT, "Model " + model + " call waited "
+                        + TimeUnit.NANOSECONDS.toMillis(queueWaitNanos) + "ms in the queue");
+                return;
+            }
+            try {
+                result.complete(call.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                var runNanos = System.nanoTime() - startedAt;
+                // racy updates only lose a sample
+                meanRunNanos = meanRunNanos == 0 ? runNanos
+                        : meanRunNanos + RUN_TIME_SMOOTHING * (runNanos - meanRunNanos);
+            }
+        }
+
+        private <T> CompletableFuture<T> reject(CompletableFuture<T> result, Reason reason, String message) {
+            metrics.rejected(reason.name());
+            logger.debug("Rejected a model call: {}", message);
+            result.completeExceptionally(new InferenceRejectedException(reason, message));
+            return result;
+        }
+    }
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    private final Map<String, ModelLane> lanes = new ConcurrentHashMap<>();
+
+    private volatile boolean stopped;
+
+    @PreDestroy
+    public void clean() {
+        stopped = true;
+        lanes.values().forEach(lane -> lane.executor.shutdown());
+    }
+
+    /**
+     * Queues a call of the model.
+     *
+     * @return completed with the call result, or failed with the call exception
+     *         or an {@link InferenceRejectedException}
+     */
+    public <T> CompletableFuture<T> submit(String model, Supplier<T> call) {
+        if (stopped) {
+            return CompletableFuture
+                    .failedFuture(new InferenceRejectedException(Reason.STOPPED, "Model " + model + " is stopped"));
+        }
+        return lanes.computeIfAbsent(model, ModelLane::new).submit(call);
+    }
+
+    /**
+     * Queues a call of the model like {@link #submit(String, Supplier)}, but
+     * blocks the calling thread while max-concurrency waiting calls of the model
+     * are queued or running, or while the queue is full, and never drops the
+     * call for its queue wait.
+     *
+     * @return completed with the call result, or failed with the call exception
+     *         or an {@link InferenceRejectedException} when stopped or
+     *         interrupted
+     */
+    public <T> CompletableFuture<T> submitWaiting(String model, Supplier<T> call) {
+        if (stopped) {
+            return CompletableFuture
+                    .failedFuture(new InferenceRejectedException(Reason.STOPPED, "Model " + model + " is stopped"));
+        }
+        return lanes.computeIfAbsent(model, ModelLane::new).submitWaiting(call);
+    }
+
+    /**
+     * @return how long a call of the model may wait before being run, for the
+     *         callers queueing model calls themselves
+     */
+    public long maxQueueWaitNanos(String model) {
+        return TimeUnit.MILLISECONDS.toNanos(limit(model, "max-queue-wait-millis", 500));
+    }
+
+    /**
+     * @return how many calls of the model may run at once
+     */
+    public int maxConcurrency(String model) {
+        return limit(model, "max-concurrency", 2);
+    }
+
+    private int limit(String model, String name, int defaultValue) {
+        var modelDefault = environment.getProperty(PROPERTY_PREFIX + "defaults." + name, Integer.class, defaultValue);
+        return environment.getProperty(PROPERTY_PREFIX + "models." + model + "." + name, Integer.class, modelDefault);
+    }
+}
@@ -0,0 +1,182 @@
+package gh.proto.tensorflow.work;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.tensorflow.Result;
+import org.tensorflow.Tensor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer meters of the models, all tagged with the model name:
+ * <ul>
+ * <li>tensorflow.stage: timer per inference stage, tagged with the stage</li>
+ * <li>tensorflow.model.requests, tensorflow.model.errors and
+ * tensorflow.model.in-flight: model calls, failed model calls and model calls
+ * running now</li>
+ * <li>tensorflow.model.rejections: model calls shed by the
+ * {@link InferenceExecutor}, tagged with the reason</li>
+ * <li>tensorflow.tensors.allocated, tensorflow.tensors.closed and
+ * tensorflow.tensors.live: native tensors created and closed by our code and
+ * the bytes of the ones still open</li>
+ * <li>tensorflow.model.heap-allocated: Java heap bytes allocated by the calling
+ * thread per model call, recorded by the hot paths that measure it</li>
+ * </ul>
+ * TensorFlow Java has no allocation hook, the tensors are counted where they
+ * are created and closed. The process wide allocation rate and GC pauses are
+ * the jvm.gc.memory.allocated and jvm.gc.pause meters.
+ */
+@Component
+public class InferenceMetrics {
+
+    /**
+     * Meters of one model.
+     */
+    public static final class ModelMetrics {
+
+        private final String model;
+        private final MeterRegistry registry;
+        private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+
+        private final Counter requests;
+        private final Counter errors;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+
+        private final Counter tensorsAllocated;
+        private final Counter tensorsClosed;
+        private final AtomicLong liveTensorBytes = new AtomicLong();
+        private final DistributionSummary heapAllocated;
+
+        private ModelMetrics(String model, MeterRegistry registry) {
+            this.model = model;
+            this.registry = registry;
+            requests = Counter.builder("tensorflow.model.requests").tag("model", model).register(registry);
+            errors = Counter.builder("tensorflow.model.errors").tag("model", model).register(registry);
+            Gauge.builder("tensorflow.model.in-flight", inFlight, AtomicInteger::get).tag("model", model)
+                    .register(registry);
+            tensorsAllocated = Counter.builder("tensorflow.tensors.allocated").tag("model", model).register(registry);
+            tensorsClosed = Counter.builder("tensorflow.tensors.closed").tag("model", model).register(registry);
+            Gauge.builder("tensorflow.tensors.live", liveTensorBytes, AtomicLong::get).tag("model", model)
+                    .baseUnit("bytes").register(registry);
+            heapAllocated = DistributionSummary.builder("tensorflow.model.heap-allocated").tag("model", model)
+                    .baseUnit("bytes").register(registry);
+        }
+
+        /**
+         * The histogram and percentiles are configured with the
+         * management.metrics.distribution.*.tensorflow.stage properties.
+         */
+        public Timer stage(String stage) {
+            return stageTimers.computeIfAbsent(stage, name -> Timer.builder("tensorflow.stage").tag("model", model)
+                    .tag("stage", name).register(registry));
+        }
+
+        /**
+         * Counts a model call, to be followed by {@link #callDone}.
+         *
+         * @return the start time to pass to {@link #callDone}
+         */
+        public long callStarted() {
+            requests.increment();
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void rejected(String reason) {
+            rejections.computeIfAbsent(reason, name -> Counter.builder("tensorflow.model.rejections")
+                    .tag("model", model).tag("reason", name).register(registry)).increment();
+        }
+
+        /**
+         * Records the model call in the given stage timer when it succeeded.
+         */
+        public void callDone(Timer stageTimer, long startNanos, boolean failed) {
+            inFlight.decrementAndGet();
+            if (failed) {
+                errors.increment();
+            } else {
+                stageTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        public <T extends Tensor> T allocated(T tensor) {
+            tensorsAllocated.increment();
+            liveTensorBytes.addAndGet(tensor.numBytes());
+            return tensor;
+        }
+
+        // indexed loops, iterating a result allocates
+        public Result allocated(Result result) {
+            for (int idx = 0; idx < result.size(); idx++) {
+                allocated(result.get(idx));
+            }
+            return result;
+        }
+
+        public void close(Tensor tensor) {
+            tensorsClosed.increment();
+            liveTensorBytes.addAndGet(-tensor.numBytes());
+            tensor.close();
+        }
+
+        /**
+         * Closes the result and its tensors.
+         */
+        public void close(Result result) {
+            for (int idx = 0; idx < result.size(); idx++) {
+                tensorsClosed.increment();
+                liveTensorBytes.addAndGet(-result.get(idx).numBytes());
+            }
+            result.close();
+        }
+
+        /**
+         * Records the heap bytes the calling thread allocated since
+         * {@link InferenceMetrics#threadAllocatedBytes()} returned the given
+         * value, nothing when the JVM can't measure it.
+         */
+        public void heapAllocatedSince(long threadAllocatedBytes) {
+            if (threadAllocatedBytes >= 0) {
+                heapAllocated.record(InferenceMetrics.threadAllocatedBytes() - threadAllocatedBytes);
+            }
+        }
+    }
+
+    // HotSpot and OpenJ9 only
+    private static final com.sun.management.ThreadMXBean THREAD_ALLOCATIONS = ManagementFactory
+            .getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean
+            && threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()
+                    ? threadBean
+                    : null;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, ModelMetrics> models = new ConcurrentHashMap<>();
+
+    public InferenceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public ModelMetrics model(String model) {
+        return models.computeIfAbsent(model, name -> new ModelMetrics(name, registry));
+    }
+
+    /**
+     * @return the heap bytes allocated so far by the calling thread, -1 when the
+     *         JVM can't measure it
+     */
+    public static long threadAllocatedBytes() {
+        return THREAD_ALLOCATIONS == null ? -1 : THREAD_ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,41 @@
+package gh.proto.tensorflow.work;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * A model call that was shed instead of run, see {@link InferenceExecutor} and
+ * {@link ModelRegistry}.
+ */
+public class InferenceRejectedException extends ProtoWorkException {
+
+    public enum Reason {
+        /**
+         * the model queue is full, the client should slow down
+         */
+        QUEUE_FULL,
+        /**
+         * the call waited, or would have waited, longer than the queue wait budget
+         */
+        QUEUE_TIMEOUT,
+        /**
+         * the model can't be loaded within the registry memory budget while the
+         * loaded models are busy
+         */
+        OVER_MEMORY_BUDGET,
+        /**
+         * the application is shutting down
+         */
+        STOPPED
+    };
+
+    private final Reason reason;
+
+    public InferenceRejectedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+}
@@ -0,0 +1,18 @@
+package gh.proto.tensorflow.work;
+
+/**
+ * A thread of an inference lane or of the iris batching workers. These threads
+ * live as long as their executor or batcher, so model state kept per thread,
+ * like the prepared iris runners, stays bounded by their number; state kept
+ * for any calling thread would pile up until shutdown.
+ */
+final class InferenceThread extends Thread {
+
+    InferenceThread(Runnable task, String name) {
+        super(task, name);
+    }
+
+    static boolean isCurrent() {
+        return Thread.currentThread() instanceof InferenceThread;
+    }
+}
@@ -0,0 +1,205 @@
+package gh.proto.tensorflow.work;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.springframework.util.FileSystemUtils;
+import org.tensorflow.Session;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.types.TFloat32;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Variable checkpoints of a training run, one numeric sub directory per
+ * checkpointed epoch of the checkpoint path.
+ * <p>
+ * A checkpoint holds all the graph variables, the optimizer slots included, so
+ * a resumed run continues exactly where it stopped. It is only resumed by a
+ * run with the same training fingerprint, written first to a temporary
+ * directory and then moved in place so a crash never leaves a partial one.
+ * <p>
+ * The network weights of the best held-out epoch are saved along, they are
+ * what an early stopped run exports when no later epoch beats them.
+ */
+final class IrisCheckpoints {
+
+    private static final String VARIABLES_PREFIX = "variables";
+    private static final String STATE_FILE_NAME = "checkpoint.properties";
+    // per weight tensor: rank, dimensions and float values
+    private static final String BEST_WEIGHTS_FILE_NAME = "best-weights.bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * What the run was at when checkpointed.
+     *
+     * @param epoch                     last completed epoch
+     * @param bestValidationPredictedOk best held-out score so far, -1 without
+     *                                  early stopping
+     * @param bestEpoch                 epoch of the best held-out score
+     */
+    record Checkpoint(Path directory, int epoch, int bestValidationPredictedOk, int bestEpoch) {
+    };
+
+    private final Path basePath;
+    private final String fingerprint;
+    private final int keep;
+
+    IrisCheckpoints(String basePath, String fingerprint, int keep) {
+        this.basePath = Path.of(basePath);
+        this.fingerprint = fingerprint;
+        this.keep = keep;
+    }
+
+    /**
+     * @return the latest checkpoint of a run with the same fingerprint
+     */
+    Optional<Checkpoint> latest() throws IOException {
+        var checkpoints = checkpoints();
+        for (int idx = checkpoints.size() - 1; idx >= 0; idx--) {
+            var state = new Properties();
+            try (Reader reader = Files.newBufferedReader(checkpoints.get(idx).resolve(STATE_FILE_NAME),
+                    StandardCharsets.UTF_8)) {
+                state.load(reader);
+            }
+            if (fingerprint.equals(state.getProperty("fingerprint"))) {
+                return Optional.of(new Checkpoint(checkpoints.get(idx), Integer.parseInt(state.getProperty("epoch")),
+                        Integer.parseInt(state.getProperty("bestValidationPredictedOk")),
+                        Integer.parseInt(state.getProperty("bestEpoch"))));
+            }
+        }
+        return Optional.empty();
+    }
+
+    void restore(Session tfSession, Checkpoint checkpoint) {
+        tfSession.restore(checkpoint.directory().resolve(VARIABLES_PREFIX).toString());
+    }
+
+    /**
+     * @return the best weights saved with the checkpoint, in their saved order,
+     *         to be closed by the caller; empty when it has none
+     */
+    List<TFloat32> bestWeights(Checkpoint checkpoint) throws IOException {
+        var bestWeightsFile = checkpoint.directory().resolve(BEST_WEIGHTS_FILE_NAME);
+        if (!Files.isRegularFile(bestWeightsFile)) {
+            return List.of();
+        }
+        var weights = new ArrayList<TFloat32>();
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(bestWeightsFile)))) {
+            var count = input.readInt();
+            for (int idx = 0; idx < count; idx++) {
+                var dimensions = new long[input.readInt()];
+                for (int dimension = 0; dimension < dimensions.length; dimension++) {
+                    dimensions[dimension] = input.readLong();
+                }
+                var shape = Shape.of(dimensions);
+                var values = new float[(int) shape.size()];
+                for (int value = 0; value < values.length; value++) {
+                    values[value] = input.readFloat();
+                }
+                weights.add(TFloat32.tensorOf(shape, DataBuffers.of(values, true, false)));
+            }
+        } catch (IOException | RuntimeException e) {
+            weights.forEach(TFloat32::close);
+            throw e;
+        }
+        return weights;
+    }
+
+    /**
+     * Checkpoints the session variables and deletes all but the newest
+     * checkpoints.
+     *
+     * @param bestWeights the network weights of the best epoch, null without
+     *                    early stopping
+     */
+    void save(Session tfSession, int epoch, int bestValidationPredictedOk, int bestEpoch, List<TFloat32> bestWeights)
+            throws IOException {
+        var directory = basePath.resolve(Integer.toString(epoch));
+        var temporaryDirectory = basePath.resolve(epoch + TEMPORARY_SUFFIX);
+        FileSystemUtils.deleteRecursively(temporaryDirectory);
+        Files.createDirectories(temporaryDirectory);
+        tfSession.save(temporaryDirectory.resolve(VARIABLES_PREFIX).toString());
+        if (bestWeights != null) {
+            saveWeights(temporaryDirectory.resolve(BEST_WEIGHTS_FILE_NAME), bestWeights);
+        }
+
+        var state = new Properties();
+        state.setProperty("fingerprint", fingerprint);
+        state.setProperty("epoch", Integer.toString(epoch));
+        state.setProperty("bestValidationPredictedOk", Integer.toString(bestValidationPredictedOk));
+        state.setProperty("bestEpoch", Integer.toString(bestEpoch));
+        try (Writer writer = Files.newBufferedWriter(temporaryDirectory.resolve(STATE_FILE_NAME),
+                StandardCharsets.UTF_8)) {
+            state.store(writer, null);
+        }
+
+        FileSystemUtils.deleteRecursively(directory);
+        Files.move(temporaryDirectory, directory, StandardCopyOption.ATOMIC_MOVE);
+
+        var checkpoints = checkpoints();
+        for (int idx = 0; idx < checkpoints.size() - keep; idx++) {
+            FileSystemUtils.deleteRecursively(checkpoints.get(idx));
+        }
+    }
+
+    private static void saveWeights(Path file, List<TFloat32> weights) throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(weights.size());
+            for (var weight : weights) {
+                var shape = weight.shape();
+                output.writeInt(shape.numDimensions());
+                for (var dimension : shape.asArray()) {
+                    output.writeLong(dimension);
+                }
+                var values = new float[(int) shape.size()];
+                weight.copyTo(DataBuffers.of(values, false, false));
+                for (var value : values) {
+                    output.writeFloat(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes all the checkpoints, once the run they belong to is exported.
+     */
+    void clear() throws IOException {
+        for (var checkpoint : checkpoints()) {
+            FileSystemUtils.deleteRecursively(checkpoint);
+        }
+    }
+
+    /**
+     * @return the checkpoints of any run, oldest epoch first
+     */
+    private List<Path> checkpoints() {
+        if (!Files.isDirectory(basePath)) {
+            return List.of();
+        }
+        try (Stream<Path> children = Files.list(basePath)) {
+            return children.filter(child -> child.getFileName().toString().chars().allMatch(Character::isDigit))
+                    .filter(child -> Files.isRegularFile(child.resolve(STATE_FILE_NAME)))
+                    .sorted(Comparator.comparingInt(child -> Integer.parseInt(child.getFileName().toString())))
+                    .toList();
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't list the checkpoints under " + basePath, e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package gh.proto.tensorflow.work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Collects concurrent single-sample classification requests and runs them as
+ * one [N, 4] tensor thru {@link IrisClassifier#classify(float[], int)}.
+ * <p>
+ * A batch is closed as soon as it reaches the max batch size or the max wait
+ * has elapsed since its first request was taken, whichever comes first, so the
+ * extra latency added to a request is bounded by the max wait.
+ * <p>
+ * The batching workers are the only threads running the iris model, a request
+ * is rejected when the queue is full or when it waited longer than the iris
+ * queue wait budget of the {@link InferenceExecutor} before its batch ran.
+ */
+@Component
+public class IrisClassificationBatcher {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private record PendingClassification(float sepalLength, float sepalWidth, float petalLength, float petalWidth,
+            long enqueuedAt, CompletableFuture<String> species) {
+    };
+
+    @Autowired
+    private IrisClassifier irisClassifier;
+
+    @Autowired
+    private InferenceExecutor inferenceExecutor;
+
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    @Value("${tensorflow.iris.batching.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tensorflow.iris.batching.max-batch-size:64}")
+    private int maxBatchSize;
+
+    @Value("${tensorflow.iris.batching.max-wait-micros:2000}")
+    private long maxWaitMicros;
+
+    @Value("${tensorflow.iris.batching.queue-capacity:4096}")
+    private int queueCapacity;
+
+    @Value("${tensorflow.iris.batching.workers:1}")
+    private int workers;
+
+    private BlockingQueue<PendingClassification> pendingClassifications;
+
+    private final List<Thread> batchingThreads = new ArrayList<>();
+
+    private volatile boolean running;
+
+    private long maxQueueWaitNanos;
+    private ModelMetrics metrics;
+    private Timer queueTimer;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        maxQueueWaitNanos = inferenceExecutor.maxQueueWaitNanos(IrisClassifier.MODEL_NAME);
+        metrics = inferenceMetrics.model(IrisClassifier.MODEL_NAME);
+        queueTimer = metrics.stage("queue");
+        pendingClassifications = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        for (int worker = 0; worker < workers; worker++) {
+            var batchingThread = new InferenceThread(this::runBatches, "iris-batcher-" + worker);
+            batchingThread.setDaemon(true);
+            batchingThread.start();
+            batchingThreads.add(batchingThread);
+        }
+
+        logger.info("Iris classification batching started: max batch size [{}], max wait [{}]us, workers [{}]",
+                maxBatchSize, maxWaitMicros, workers);
+    }
+
+    @PreDestroy
+    public void clean() {
+        if (pendingClassifications != null) {
+            // a submit checks running and offers under the same lock, nothing is
+            // queued after the drain below
+            synchronized (pendingClassifications) {
+                running = false;
+            }
+        }
+        for (var batchingThread : batchingThreads) {
+            batchingThread.interrupt();
+        }
+        for (var batchingThread : batchingThreads) {
+            try {
+                batchingThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (pendingClassifications != null) {
+            var abandoned = new ArrayList<PendingClassification>();
+            pendingClassifications.drainTo(abandoned);
+            abandoned.forEach(pending -> pending.species.completeExceptionally(
+                    new InferenceRejectedException(Reason.STOPPED, "Iris classification batcher stopped")));
+        }
+    }
+
+    /**
+     * @return completed with the predicted species, or failed with an
+     *         {@link InferenceRejectedException} when the request was shed
+     */
+    public CompletableFuture<String> submit(float sepalLength, float sepalWidth, float petalLength,
+            float petalWidth) {
+        if (!enabled) {
+            return inferenceExecutor.submit(IrisClassifier.MODEL_NAME,
+                    () -> irisClassifier.classify(sepalLength, sepalWidth, petalLength, petalWidth));
+        }
+
+        var pending = new PendingClassification(sepalLength, sepalWidth, petalLength, petalWidth, System.nanoTime(),
+                new CompletableFuture<>());
+        boolean stopped;
+        boolean queued = false;
+        synchronized (pendingClassifications) {
+            stopped = !running;
+            if (!stopped) {
+                queued = pendingClassifications.offer(pending);
+            }
+        }
+        if (stopped) {
+            reject(pending, Reason.STOPPED, "Iris classification batcher stopped");
+        } else if (!queued) {
+            reject(pending, Reason.QUEUE_FULL, "Iris classification queue is full");
+        }
+        return pending.species;
+    }
+
+    private void runBatches() {
+        var batch = new ArrayList<PendingClassification>(maxBatchSize);
+        var admitted = new ArrayList<PendingClassification>(maxBatchSize);
+        var features = new float[maxBatchSize * IrisClassifier.INPUT_LAYER_WIDTH];
+        var maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        while (running) {
+            try {
+                batch.add(pendingClassifications.take());
+                var deadline = System.nanoTime() + maxWaitNanos;
+                pendingClassifications.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize) {
+                    var remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        break;
+                    }
+                    var next = pendingClassifications.poll(remainingNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    pendingClassifications.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // stopping, whatever was collected so far is still answered below
+            }
+            if (!batch.isEmpty()) {
+                runBatch(batch, admitted, features);
+                batch.clear();
+                admitted.clear();
+            }
+        }
+    }
+
+    private void runBatch(List<PendingClassification> batch, List<PendingClassification> admitted,
+            float[] features) {
+        var now = System.nanoTime();
+        for (var pending : batch) {
+            var queueWaitNanos = now - pending.enqueuedAt;
+            queueTimer.record(queueWaitNanos, TimeUnit.NANOSECONDS);
+            if (queueWaitNanos > maxQueueWaitNanos) {
+                reject(pending, Reason.QUEUE_TIMEOUT, "Iris classification waited "
+                        + TimeUnit.NANOSECONDS.toMillis(queueWaitNanos) + "ms in the queue");
+            } else {
+                admitted.add(pending);
+            }
+        }
+        if (admitted.isEmpty()) {
+            return;
+        }
+        for (int row = 0; row < admitted.size(); row++) {
+            var pending = admitted.get(row);
+            var rowOffset = row * IrisClassifier.INPUT_LAYER_WIDTH;
+            features[rowOffset + IrisClassifier.SEPAL_LENGTH_IDX] = pending.sepalLength;
+            features[rowOffset + IrisClassifier.SEPAL_WIDTH_IDX] = pending.sepalWidth;
+            features[rowOffset + IrisClassifier.PETAL_LENGTH_IDX] = pending.petalLength;
+            features[rowOffset + IrisClassifier.PETAL_WIDTH_IDX] = pending.petalWidth;
+        }
+        try {
+            var species = irisClassifier.classify(features, admitted.size());
+            for (int row = 0; row < admitted.size(); row++) {
+                admitted.get(row).species.complete(species[row]);
+            }
+            logger.debug("Classified batch of [{}] iris samples", admitted.size());
+        } catch (RuntimeException e) {
+            admitted.forEach(pending -> pending.species.completeExceptionally(e));
+        }
+    }
+
+    private void reject(PendingClassification pending, Reason reason, String message) {
+        metrics.rejected(reason.name());
+        pending.species.completeExceptionally(new InferenceRejectedException(reason, message));
+    }
+}
@@ -1,18 +1,29 @@
 package gh.proto.tensorflow.work;
 
-import java.util.Map;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.tensorflow.Result;
 import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Session;
-import org.tensorflow.Tensor;
 import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.ndarray.buffer.FloatDataBuffer;
+import org.tensorflow.ndarray.buffer.IntDataBuffer;
 import org.tensorflow.types.TFloat32;
+import org.tensorflow.types.TInt32;
 
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
@@ -21,11 +32,13 @@ public class IrisClassifier {
 
     private final Logger logger = LogManager.getLogger(getClass());
 
+    public static final String MODEL_NAME = "iris";
+
     // must match the order used during training
-    private static final int SEPAL_LENGTH_IDX = 0;
-    private static final int SEPAL_WIDTH_IDX = 1;
-    private static final int PETAL_LENGTH_IDX = 2;
-    private static final int PETAL_WIDTH_IDX = 3;
+    public static final int SEPAL_LENGTH_IDX = 0;
+    public static final int SEPAL_WIDTH_IDX = 1;
+    public static final int PETAL_LENGTH_IDX = 2;
+    public static final int PETAL_WIDTH_IDX = 3;
 
     // chosen by us and must be consistent thru training and running
     private static final String IRIS_SETOSA = "Iris-setosa";
@@ -37,55 +50,332 @@ public class IrisClassifier {
     private static final String IRIS_VIRGINICA = "Iris-virginica";
     private static final int OUTPUT_IRIS_VIRGINICA_IDX = 2;
 
-    private static final long INPUT_LAYER_WIDTH = 4L;
+    // indexed by the OUTPUT_*_IDX values above
+    private static final String[] SPECIES_BY_OUTPUT_IDX = { IRIS_SETOSA, IRIS_VERSICOLOUR, IRIS_VIRGINICA };
+
+    public static final int INPUT_LAYER_WIDTH = 4;
     private static final String OP_NAME_INPUT_LAYER_PLACEHOLDER = "inputLayerPlaceholder";
     private static final String OP_NAME_OUTPUT_ACTIVATION = "outputActivation";
+    private static final String OP_NAME_OUTPUT_CLASS = "outputClass";
+
+    // rows of the auto-tune synthetic calls, a full default batch
+    private static final int SYNTHETIC_CALL_ROWS = 64;
+
+    /**
+     * Whether the bundle has the argmax op, models exported before it was added
+     * to the training graph only have the activation.
+     */
+    private record OutputOps(SavedModelBundle bundle, boolean hasOutputClass) {
+    };
+
+    /**
+     * The [1, 4] input tensor, output arrays and prepared runner of the single
+     * sample calls of one thread, filled and run again on every call; the
+     * runner is prepared again for a swapped in bundle.
+     */
+    private final class SingleSampleCall implements AutoCloseable {
+
+        private final TFloat32 input;
+        private final FloatDataBuffer inputBuffer;
+        private final int[] outputIdx = new int[1];
+        private final IntDataBuffer outputIdxBuffer = DataBuffers.of(outputIdx, false, false);
+        private final float[] chances = new float[SPECIES_BY_OUTPUT_IDX.length];
+        private final FloatDataBuffer chancesBuffer = DataBuffers.of(chances, false, false);
+        private SavedModelBundle bundle;
+        private Session.Runner runner;
+        private boolean hasOutputClass;
+
+        private SingleSampleCall() {
+            input = metrics.allocated(TFloat32.tensorOf(Shape.of(1, INPUT_LAYER_WIDTH)));
+            inputBuffer = input.asRawTensor().data().asFloats();
+        }
+
+        private Session.Runner runner(SavedModelBundle current) {
+            if (current != bundle) {
+                hasOutputClass = hasOutputClass(current);
+                runner = current.session().runner().feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, input)
+                        .fetch(hasOutputClass ? OP_NAME_OUTPUT_CLASS : OP_NAME_OUTPUT_ACTIVATION);
+                bundle = current;
+            }
+            return runner;
+        }
+
+        @Override
+        public void close() {
+            metrics.close(input);
+        }
+    }
 
     @Value("${tensorflow.iris.path}")
     private String modelPath;
 
-    private SavedModelBundle model;
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    @Autowired
+    private ModelExecutionProfiles executionProfiles;
+
+    private SavedModelHolder model;
+
+    // of the last bundle used, looked up again after a swap
+    private volatile OutputOps outputOps;
+
+    // the model runs on a few inference and batching threads, each keeps its state;
+    // other threads take the leased path, see InferenceThread
+    private final ThreadLocal<SingleSampleCall> singleSampleCalls = ThreadLocal.withInitial(this::newSingleSampleCall);
+    private final Set<SingleSampleCall> allSingleSampleCalls = ConcurrentHashMap.newKeySet();
+
+    private ModelMetrics metrics;
+    private Timer inputTimer;
+    private Timer runTimer;
+    private Timer outputTimer;
 
     @PostConstruct
     public void init() {
-        model = SavedModelBundle.load(modelPath, SavedModelBundle.DEFAULT_TAG);
+        metrics = inferenceMetrics.model(MODEL_NAME);
+        inputTimer = metrics.stage("input");
+        runTimer = metrics.stage("run");
+        outputTimer = metrics.stage("output");
+
+        var versionPath = SavedModelVersions.latest(modelPath)
+                .orElseThrow(() -> new ProtoWorkException("No iris model found in " + modelPath));
+        var bundle = executionProfiles.load(MODEL_NAME, versionPath.toString(), IrisClassifier::syntheticCall);
+        model = new SavedModelHolder(MODEL_NAME, bundle, SavedModelVersions.versionName(versionPath));
 
-        logger.info("TensorFlow model functions: [{}]", model.signatures());
+        logger.info("TensorFlow model functions: [{}]", bundle.signatures());
     }
 
     @PreDestroy
     public void clean() {
+        allSingleSampleCalls.forEach(SingleSampleCall::close);
         model.close();
     }
 
+    @EventListener
+    public void onModelExported(IrisModelExported modelExported) {
+        reload(modelExported.versionPath());
+    }
+
+    /**
+     * @param listener called on the reloading thread every time a new model
+     *                 version is swapped in
+     */
+    public void addModelSwapListener(Runnable listener) {
+        model.addSwapListener(listener);
+    }
+
+    /**
+     * Loads the latest exported version if it is not the one in use.
+     *
+     * @return the version in use after the reload
+     */
+    public String reload() {
+        var versionPath = SavedModelVersions.latest(modelPath)
+                .orElseThrow(() -> new ProtoWorkException("No iris model found in " + modelPath));
+        return reload(versionPath);
+    }
+
+    /**
+     * Loads and warms up the given version on the calling thread, then swaps it
+     * in; the requests running meanwhile keep using the previous version.
+     */
+    private synchronized String reload(Path versionPath) {
+        var version = SavedModelVersions.versionName(versionPath);
+        if (version.equals(model.version())) {
+            return version;
+        }
+        var bundle = executionProfiles.load(MODEL_NAME, versionPath.toString());
+        try {
+            // the first run of a session pays for its lazy initializations
+            classify(bundle, new float[INPUT_LAYER_WIDTH], 1);
+        } catch (RuntimeException e) {
+            bundle.close();
+            throw new ProtoWorkException("Iris model version " + version + " failed its warm up", e);
+        }
+        model.swap(bundle, version);
+
+        return version;
+    }
+
+    /**
+     * Classifies one sample thru the preallocated tensors and prepared runner of
+     * the calling thread, the Java heap is only touched by the session run; only
+     * on an {@link InferenceThread}, the other threads get a tensor per call.
+     */
     public String classify(float sepalLength, float sepalWidth, float petalLength, float petalWidth) {
-        String species = null;
-        Session tfSession = model.session();
-        try (var inputDataTensor = Tensor.of(TFloat32.class, Shape.of(1, INPUT_LAYER_WIDTH), data -> {
-            data.setFloat(sepalLength, 0, SEPAL_LENGTH_IDX);
-            data.setFloat(sepalWidth, 0, SEPAL_WIDTH_IDX);
-            data.setFloat(petalLength, 0, PETAL_LENGTH_IDX);
-            data.setFloat(petalWidth, 0, PETAL_WIDTH_IDX);
-
-        })) {
-            Result result = tfSession.runner().feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, inputDataTensor)
-                    .fetch(OP_NAME_OUTPUT_ACTIVATION).run();
-
-            var outputTensor = (TFloat32) result.get(0);
-            var chanceIrisSetosa = outputTensor.getFloat(0, OUTPUT_IRIS_SETOSA_IDX);
-            var chanceIrisVersicolour = outputTensor.getFloat(0, OUTPUT_IRIS_VERSICOLOUR_IDX);
-            var chanceIrisVirginica = outputTensor.getFloat(0, OUTPUT_IRIS_VIRGINICA_IDX);
-            var speciesToChanceMap = Map.of(IRIS_SETOSA, chanceIrisSetosa, IRIS_VERSICOLOUR, chanceIrisVersicolour,
-                    IRIS_VIRGINICA, chanceIrisVirginica);
-            species = speciesToChanceMap.entrySet().stream().sorted((entry1, entry2) -> {
-                return entry1.getValue() > entry2.getValue() ? -1 : 1;
-            }).toList().get(0).getKey();
-
-            logger.info(
-                    " For sepalLength [{}], sepalWidth [{}], petalLength [{}], petalWidth [{}] the predicted species is [{}]",
-                    sepalLength, sepalWidth, petalLength, petalWidth, species);
+        String species;
+        if (InferenceThread.isCurrent()) {
+            var call = singleSampleCalls.get();
+            var inputStart = System.nanoTime();
+            call.inputBuffer.setFloat(sepalLength, SEPAL_LENGTH_IDX);
+            call.inputBuffer.setFloat(sepalWidth, SEPAL_WIDTH_IDX);
+            call.inputBuffer.setFloat(petalLength, PETAL_LENGTH_IDX);
+            call.inputBuffer.setFloat(petalWidth, PETAL_WIDTH_IDX);
+            inputTimer.record(System.nanoTime() - inputStart, TimeUnit.NANOSECONDS);
+            species = classify(call);
+        } else {
+            var features = new float[INPUT_LAYER_WIDTH];
+            features[SEPAL_LENGTH_IDX] = sepalLength;
+            features[SEPAL_WIDTH_IDX] = sepalWidth;
+            features[PETAL_LENGTH_IDX] = petalLength;
+            features[PETAL_WIDTH_IDX] = petalWidth;
+            try (var lease = model.acquire()) {
+                species = classify(lease.bundle(), features, 1)[0];
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(" For sepalLength [{}], sepalWidth [{}], petalLength [{}], petalWidth [{}] the predicted "
+                    + "species is [{}]", sepalLength, sepalWidth, petalLength, petalWidth, species);
         }
 
         return species;
     }
+
+    /**
+     * Classifies several samples with a single session run.
+     *
+     * @param features row-major samples, {@value #INPUT_LAYER_WIDTH} values per row
+     *                 in the *_IDX order; may be longer than needed, only the
+     *                 first rows are read
+     * @param rows     number of samples to classify
+     * @return the predicted species, one per row
+     */
+    public String[] classify(float[] features, int rows) {
+        if (rows == 1 && InferenceThread.isCurrent()) {
+            // a lone request of the batcher takes the single sample path
+            var call = singleSampleCalls.get();
+            var inputStart = System.nanoTime();
+            call.inputBuffer.write(features, 0, INPUT_LAYER_WIDTH);
+            inputTimer.record(System.nanoTime() - inputStart, TimeUnit.NANOSECONDS);
+            return new String[] { classify(call) };
+        }
+        try (var lease = model.acquire()) {
+            return classify(lease.bundle(), features, rows);
+        }
+    }
+
+    private String[] classify(SavedModelBundle bundle, float[] features, int rows) {
+        var species = new String[rows];
+        var inputStart = System.nanoTime();
+        var inputDataTensor = metrics.allocated(TFloat32.tensorOf(Shape.of(rows, INPUT_LAYER_WIDTH),
+                DataBuffers.of(features, true, false).narrow(rows * INPUT_LAYER_WIDTH)));
+        try {
+            inputTimer.record(System.nanoTime() - inputStart, TimeUnit.NANOSECONDS);
+            var hasOutputClass = hasOutputClass(bundle);
+            var result = run(bundle.session(), inputDataTensor,
+                    hasOutputClass ? OP_NAME_OUTPUT_CLASS : OP_NAME_OUTPUT_ACTIVATION);
+            try {
+                var outputStart = System.nanoTime();
+                // one bulk copy out of the output tensor
+                if (hasOutputClass) {
+                    var outputIdxs = new int[rows];
+                    ((TInt32) result.get(0)).copyTo(DataBuffers.of(outputIdxs, false, false));
+                    for (int row = 0; row < rows; row++) {
+                        species[row] = SPECIES_BY_OUTPUT_IDX[outputIdxs[row]];
+                    }
+                } else {
+                    var chances = new float[rows * SPECIES_BY_OUTPUT_IDX.length];
+                    ((TFloat32) result.get(0)).copyTo(DataBuffers.of(chances, false, false));
+                    for (int row = 0; row < rows; row++) {
+                        species[row] = SPECIES_BY_OUTPUT_IDX[argMax(chances, row)];
+                    }
+                }
+                outputTimer.record(System.nanoTime() - outputStart, TimeUnit.NANOSECONDS);
+            } finally {
+                metrics.close(result);
+            }
+        } finally {
+            metrics.close(inputDataTensor);
+        }
+
+        return species;
+    }
+
+    private String classify(SingleSampleCall call) {
+        var allocatedBytes = InferenceMetrics.threadAllocatedBytes();
+        try (var lease = model.acquire()) {
+            var runner = call.runner(lease.bundle());
+            var runStart = metrics.callStarted();
+            var failed = true;
+            Result result;
+            try {
+                result = metrics.allocated(runner.run());
+                failed = false;
+            } finally {
+                metrics.callDone(runTimer, runStart, failed);
+            }
+            try {
+                var outputStart = System.nanoTime();
+                int outputIdx;
+                if (call.hasOutputClass) {
+                    ((TInt32) result.get(0)).copyTo(call.outputIdxBuffer);
+                    outputIdx = call.outputIdx[0];
+                } else {
+                    ((TFloat32) result.get(0)).copyTo(call.chancesBuffer);
+                    outputIdx = argMax(call.chances, 0);
+                }
+                outputTimer.record(System.nanoTime() - outputStart, TimeUnit.NANOSECONDS);
+                return SPECIES_BY_OUTPUT_IDX[outputIdx];
+            } finally {
+                metrics.close(result);
+            }
+        } finally {
+            metrics.heapAllocatedSince(allocatedBytes);
+        }
+    }
+
+    private SingleSampleCall newSingleSampleCall() {
+        var call = new SingleSampleCall();
+        allSingleSampleCalls.add(call);
+        return call;
+    }
+
+    private boolean hasOutputClass(SavedModelBundle bundle) {
+        var current = outputOps;
+        if (current == null || current.bundle() != bundle) {
+            current = new OutputOps(bundle, bundle.graph().operation(OP_NAME_OUTPUT_CLASS) != null);
+            outputOps = current;
+        }
+        return current.hasOutputClass();
+    }
+
+    private Result run(Session tfSession, TFloat32 inputDataTensor, String outputOpName) {
+        var runStart = metrics.callStarted();
+        var failed = true;
+        try {
+            var result = metrics.allocated(tfSession.runner().feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, inputDataTensor)
+                    .fetch(outputOpName).run());
+            failed = false;
+            return result;
+        } finally {
+            metrics.callDone(runTimer, runStart, failed);
+        }
+    }
+
+    /**
+     * Runs the model on a batch of zeros, without the metrics of the real
+     * calls.
+     */
+    private static void syntheticCall(SavedModelBundle bundle) {
+        try (var input = TFloat32.tensorOf(Shape.of(SYNTHETIC_CALL_ROWS, INPUT_LAYER_WIDTH))) {
+            // only the run matters
+            bundle.session().runner().feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, input).fetch(OP_NAME_OUTPUT_ACTIVATION)
+                    .run().close();
+        }
+    }
+
+    private static int argMax(float[] chances, int row) {
+        var rowStart = row * SPECIES_BY_OUTPUT_IDX.length;
+        var bestIdx = 0;
+        var bestChance = chances[rowStart];
+        for (int idx = 1; idx < SPECIES_BY_OUTPUT_IDX.length; idx++) {
+            var chance = chances[rowStart + idx];
+            if (chance > bestChance) {
+                bestIdx = idx;
+                bestChance = chance;
+            }
+        }
+        return bestIdx;
+    }
 }
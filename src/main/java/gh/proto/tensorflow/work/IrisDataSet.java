@@ -0,0 +1,348 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.springframework.core.io.Resource;
+import org.tensorflow.ndarray.buffer.FloatDataBuffer;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Iris training samples kept off heap, so the data size is not limited by the
+ * heap.
+ * <p>
+ * The csv is parsed in one streaming pass straight from its bytes, without
+ * lines or strings per sample, into two temporary files: the 4 features of
+ * each sample as little-endian floats and the species of each sample as one
+ * byte. Both files are then memory mapped and deleted, the operating system
+ * pages them in and out as needed and the mappings go away with this object.
+ */
+public final class IrisDataSet {
+
+    // must match the order from the input csv file with the
+    // data(train_data/iris/bezdekIris.data)
+    private static final int CSV_SEPAL_LENGTH_IDX = 0;
+    private static final int CSV_SEPAL_WIDTH_IDX = 1;
+    private static final int CSV_PETAL_LENGTH_IDX = 2;
+    private static final int CSV_PETAL_WIDTH_IDX = 3;
+    private static final int CSV_SPECIES_NAME_IDX = 4;
+
+    private static final int FEATURES = 4;
+    private static final int FEATURE_BYTES = FEATURES * Float.BYTES;
+
+    /**
+     * set by number of species: 1. Iris-setosa, 2. Iris-versicolor, 3.
+     * Iris-virginica
+     */
+    public static final int SPECIES = 3;
+
+    // chosen by us and must be consistent thru training and running, the index
+    // in this array is the output index
+    private static final byte[][] SPECIES_NAMES = { "Iris-setosa".getBytes(StandardCharsets.US_ASCII),
+            "Iris-versicolor".getBytes(StandardCharsets.US_ASCII),
+            "Iris-virginica".getBytes(StandardCharsets.US_ASCII) };
+
+    // a mapping can't be bigger than 2GB, the files are mapped in segments of
+    // this number of samples
+    private static final int SEGMENT_SAMPLES = 1 << 26;
+
+    private static final int IO_BUFFER_BYTES = 1 << 20;
+
+    // far past the float range, keeps the exponent an int
+    private static final int MAX_EXPONENT = 1000;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+    private final int samples;
+    private final MappedByteBuffer[] featureSegments;
+    private final MappedByteBuffer[] speciesSegments;
+
+    private IrisDataSet(int samples, MappedByteBuffer[] featureSegments, MappedByteBuffer[] speciesSegments) {
+        this.samples = samples;
+        this.featureSegments = featureSegments;
+        this.speciesSegments = speciesSegments;
+    }
+
+    public int samples() {
+        return samples;
+    }
+
+    /**
+     * @return the output index of the species of the sample
+     */
+    public int outputIdx(int sample) {
+        return speciesSegments[sample / SEGMENT_SAMPLES].get(sample % SEGMENT_SAMPLES);
+    }
+
+    /**
+     * Writes the features of a sample into row {@code row} of a [rows, 4] buffer
+     * and its one-hot species into row {@code row} of a [rows, 3] buffer, the
+     * buffers are usually the memory of the batch tensors.
+     */
+    public void copySample(int sample, FloatDataBuffer features, FloatDataBuffer oneHotSpecies, int row) {
+        var featureSegment = featureSegments[sample / SEGMENT_SAMPLES];
+        var featureOffset = (sample % SEGMENT_SAMPLES) * FEATURE_BYTES;
+        var rowOffset = (long) row * FEATURES;
+        for (int feature = 0; feature < FEATURES; feature++) {
+            features.setFloat(featureSegment.getFloat(featureOffset + feature * Float.BYTES), rowOffset + feature);
+        }
+        // 0 = 0%, 1 = 100% chance to be the expected species
+        // only 1 of the 3 must be set to 1, the rest 0
+        var outputIdx = outputIdx(sample);
+        for (int species = 0; species < SPECIES; species++) {
+            oneHotSpecies.setFloat(species == outputIdx ? 1 : 0, (long) row * SPECIES + species);
+        }
+    }
+
+    public static IrisDataSet load(Resource csv) throws IOException {
+        var featuresFile = Files.createTempFile("iris-features", ".bin");
+        var speciesFile = Files.createTempFile("iris-species", ".bin");
+        // deleted on close, the mappings stay valid
+        try (ReadableByteChannel input = csv.isFile() ? FileChannel.open(csv.getFile().toPath())
+                : Channels.newChannel(csv.getInputStream());
+                var featuresChannel = FileChannel.open(featuresFile, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                var speciesChannel = FileChannel.open(speciesFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE)) {
+            var samples = new CsvParser(featuresChannel, speciesChannel).parse(input);
+            if (samples == 0) {
+                throw new ProtoWorkException("No training data in " + csv.getDescription());
+            }
+
+            var segments = (samples + SEGMENT_SAMPLES - 1) / SEGMENT_SAMPLES;
+            var featureSegments = new MappedByteBuffer[segments];
+            var speciesSegments = new MappedByteBuffer[segments];
+            for (int segment = 0; segment < segments; segment++) {
+                long firstSample = (long) segment * SEGMENT_SAMPLES;
+                var segmentSamples = Math.min(SEGMENT_SAMPLES, samples - firstSample);
+                featureSegments[segment] = featuresChannel.map(MapMode.READ_ONLY, firstSample * FEATURE_BYTES,
+                        segmentSamples * FEATURE_BYTES);
+                featureSegments[segment].order(ByteOrder.LITTLE_ENDIAN);
+                speciesSegments[segment] = speciesChannel.map(MapMode.READ_ONLY, firstSample, segmentSamples);
+            }
+            return new IrisDataSet(samples, featureSegments, speciesSegments);
+        }
+    }
+
+    /**
+     * Byte level csv parser: decimal numbers are accumulated digit by digit and
+     * the species name is matched against the known names byte by byte.
+     * <p>
+     * A number is an optional sign, digits with an optional fraction and an
+     * optional exponent, e.g. -1.5, +2, 5E0 or 1e-1; the NaN, Infinity and
+     * hexadecimal notations Float.valueOf also reads are rejected.
+     */
+    private static final class CsvParser {
+
+        private final FileChannel featuresChannel;
+        private final FileChannel speciesChannel;
+        private final ByteBuffer featuresOut = ByteBuffer.allocateDirect(IO_BUFFER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteBuffer speciesOut = ByteBuffer.allocateDirect(IO_BUFFER_BYTES / FEATURE_BYTES);
+
+        private final float[] lineFeatures = new float[FEATURES];
+        private final byte[] speciesName = new byte[64];
+        private int speciesNameLength;
+
+        private int field;
+        private boolean blankLine = true;
+        private long mantissa;
+        private int digits;
+        private int fractionDigits;
+        private boolean fraction;
+        private boolean signed;
+        private boolean negative;
+        private boolean exponent;
+        private boolean exponentSigned;
+        private boolean exponentNegative;
+        private int exponentDigits;
+        private int exponentValue;
+        private long line = 1;
+        private int samples;
+
+        private CsvParser(FileChannel featuresChannel, FileChannel speciesChannel) {
+            this.featuresChannel = featuresChannel;
+            this.speciesChannel = speciesChannel;
+        }
+
+        private int parse(ReadableByteChannel input) throws IOException {
+            var in = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+            while (input.read(in) != -1) {
+                in.flip();
+                while (in.hasRemaining()) {
+                    accept(in.get());
+                }
+                in.clear();
+            }
+            // the last line may have no line end
+            accept((byte) '\n');
+            flush(featuresOut, featuresChannel);
+            flush(speciesOut, speciesChannel);
+
+            return samples;
+        }
+
+        private void accept(byte current) throws IOException {
+            switch (current) {
+            case '\r':
+                return;
+            case '\n':
+                if (!blankLine) {
+                    endField();
+                    endLine();
+                }
+                line++;
+                blankLine = true;
+                return;
+            case ',':
+                blankLine = false;
+                endField();
+                field++;
+                return;
+            default:
+                if (current == ' ' || current == '\t') {
+                    return;
+                }
+                blankLine = false;
+                if (field == CSV_SPECIES_NAME_IDX) {
+                    if (speciesNameLength == speciesName.length) {
+                        throw malformed("species name too long");
+                    }
+                    speciesName[speciesNameLength++] = current;
+                } else if (exponent) {
+                    acceptExponent(current);
+                } else if (current >= '0' && current <= '9') {
+                    if (mantissa > (Long.MAX_VALUE - (current - '0')) / 10) {
+                        throw malformed("too many digits");
+                    }
+                    mantissa = mantissa * 10 + (current - '0');
+                    digits++;
+                    if (fraction) {
+                        fractionDigits++;
+                    }
+                } else if (current == '.' && !fraction) {
+                    fraction = true;
+                } else if ((current == '-' || current == '+') && digits == 0 && !signed && !fraction) {
+                    signed = true;
+                    negative = current == '-';
+                } else if ((current == 'e' || current == 'E') && digits > 0) {
+                    exponent = true;
+                } else {
+                    throw unexpected(current);
+                }
+            }
+        }
+
+        private void acceptExponent(byte current) {
+            if (current >= '0' && current <= '9') {
+                if (exponentValue > MAX_EXPONENT) {
+                    throw malformed("exponent out of range");
+                }
+                exponentValue = exponentValue * 10 + (current - '0');
+                exponentDigits++;
+            } else if ((current == '-' || current == '+') && exponentDigits == 0 && !exponentSigned) {
+                exponentSigned = true;
+                exponentNegative = current == '-';
+            } else {
+                throw unexpected(current);
+            }
+        }
+
+        private void endField() {
+            if (field > CSV_SPECIES_NAME_IDX) {
+                throw malformed("too many fields");
+            }
+            if (field < CSV_SPECIES_NAME_IDX) {
+                if (digits == 0) {
+                    throw malformed("empty field " + (field + 1));
+                }
+                if (exponent && exponentDigits == 0) {
+                    throw malformed("exponent without digits in field " + (field + 1));
+                }
+                // exact powers of ten, the division or product rounds once
+                var scale = (exponentNegative ? -exponentValue : exponentValue) - fractionDigits;
+                var value = scale >= 0 ? mantissa * powerOfTen(scale) : mantissa / powerOfTen(-scale);
+                lineFeatures[field] = (float) (negative ? -value : value);
+                mantissa = 0;
+                digits = 0;
+                fractionDigits = 0;
+                fraction = false;
+                signed = false;
+                negative = false;
+                exponent = false;
+                exponentSigned = false;
+                exponentNegative = false;
+                exponentDigits = 0;
+                exponentValue = 0;
+            }
+        }
+
+        private void endLine() throws IOException {
+            if (field != CSV_SPECIES_NAME_IDX) {
+                throw malformed("expected " + (CSV_SPECIES_NAME_IDX + 1) + " fields");
+            }
+            if (featuresOut.remaining() < FEATURE_BYTES) {
+                flush(featuresOut, featuresChannel);
+            }
+            if (!speciesOut.hasRemaining()) {
+                flush(speciesOut, speciesChannel);
+            }
+            featuresOut.putFloat(lineFeatures[CSV_SEPAL_LENGTH_IDX]);
+            featuresOut.putFloat(lineFeatures[CSV_SEPAL_WIDTH_IDX]);
+            featuresOut.putFloat(lineFeatures[CSV_PETAL_LENGTH_IDX]);
+            featuresOut.putFloat(lineFeatures[CSV_PETAL_WIDTH_IDX]);
+            speciesOut.put((byte) speciesOutputIdx());
+            if (samples == Integer.MAX_VALUE) {
+                throw malformed("too many samples");
+            }
+            samples++;
+            field = 0;
+            speciesNameLength = 0;
+        }
+
+        private int speciesOutputIdx() {
+            for (int outputIdx = 0; outputIdx < SPECIES_NAMES.length; outputIdx++) {
+                var knownName = SPECIES_NAMES[outputIdx];
+                if (knownName.length == speciesNameLength
+                        && Arrays.equals(knownName, 0, knownName.length, speciesName, 0, speciesNameLength)) {
+                    return outputIdx;
+                }
+            }
+            throw malformed("unknown species name: "
+                    + new String(speciesName, 0, speciesNameLength, StandardCharsets.US_ASCII));
+        }
+
+        private static double powerOfTen(int power) {
+            return power < POWERS_OF_TEN.length ? POWERS_OF_TEN[power] : Math.pow(10, power);
+        }
+
+        private ProtoWorkException unexpected(byte current) {
+            return malformed("unexpected character '" + (char) current
+                    + "', numbers are decimal with an optional exponent");
+        }
+
+        private ProtoWorkException malformed(String reason) {
+            return new ProtoWorkException("Malformed training data at line " + line + ": " + reason);
+        }
+
+        private static void flush(ByteBuffer out, FileChannel channel) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.proto.ConfigProto;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Trains many {@link IrisTrainer} networks at once, one per hyperparameter
+ * configuration of a search space, and exports only the best one.
+ * <p>
+ * Every configuration gets its own graph and session and runs on a fork-join
+ * pool sized to the cores. The sessions use their own thread pools, capped at
+ * tensorflow.iris.sweep.intra-op-threads, so the parallel runs don't
+ * oversubscribe the cores; the {@link ModelExecutionProfiles} are for serving
+ * and don't apply. Runs are trained on the same samples and scored on
+ * the same held-out samples, the split being seeded.
+ */
+@Component
+public class IrisHyperparameterSweep {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    /**
+     * Values to try per hyperparameter, a missing or empty list means the
+     * configured value only.
+     *
+     * @param randomSamples number of configurations drawn at random from the
+     *                      grid, all the grid configurations are tried when
+     *                      missing or 0
+     */
+    public record SearchSpace(List<Long> hiddenLayer1Widths, List<Long> hiddenLayer2Widths, List<Float> learningRates,
+            List<Integer> epochs, List<Integer> batchSizes, Integer randomSamples) {
+    };
+
+    /**
+     * @param validationPredictedOk held-out samples predicted as expected
+     * @param trainingMeanLoss      mean loss of the last training epoch, breaks
+     *                              accuracy ties
+     */
+    public record SweepRun(IrisHyperparameters hyperparameters, int validationPredictedOk, int validationSamples,
+            double trainingMeanLoss) {
+    };
+
+    /**
+     * @param runs        best first
+     * @param versionPath the directory the best run was exported to
+     */
+    public record SweepResult(List<SweepRun> runs, Path versionPath) {
+    };
+
+    private static final Comparator<SweepRun> BEST_FIRST = Comparator
+            .comparingInt(SweepRun::validationPredictedOk).reversed()
+            .thenComparingDouble(SweepRun::trainingMeanLoss);
+
+    @Autowired
+    private IrisTrainer irisTrainer;
+
+    /**
+     * configurations trained at once, 0 for the number of cores divided by the
+     * intra-op threads
+     */
+    @Value("${tensorflow.iris.sweep.parallelism:0}")
+    private int parallelism;
+
+    @Value("${tensorflow.iris.sweep.intra-op-threads:1}")
+    private int intraOpThreads;
+
+    /**
+     * part of the samples held out of training to score the runs
+     */
+    @Value("${tensorflow.iris.sweep.validation-fraction:0.2}")
+    private double validationFraction;
+
+    /**
+     * bigger search spaces are refused, use random samples to cover them
+     */
+    @Value("${tensorflow.iris.sweep.max-configurations:256}")
+    private int maxConfigurations;
+
+    /**
+     * The best session seen so far, kept open to be exported at the end of the
+     * sweep, the other ones are closed as soon as they are scored.
+     */
+    private static final class BestRun implements AutoCloseable {
+
+        private SweepRun run;
+        private Graph graph;
+        private Session session;
+
+        /**
+         * @return true when the run is the best so far, its graph and session are
+         *         then owned by this
+         */
+        private synchronized boolean offer(SweepRun candidate, Graph candidateGraph, Session candidateSession) {
+            if (run != null && BEST_FIRST.compare(candidate, run) >= 0) {
+                return false;
+            }
+            close();
+            run = candidate;
+            graph = candidateGraph;
+            session = candidateSession;
+            return true;
+        }
+
+        private synchronized SweepRun run() {
+            return run;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (session != null) {
+                session.close();
+                graph.close();
+                session = null;
+                graph = null;
+            }
+        }
+    }
+
+    /**
+     * Records the last epoch loss of a run, progress is reported per run and not
+     * per epoch of the parallel runs.
+     */
+    private static final class RunMonitor implements TrainingMonitor {
+
+        private final TrainingMonitor sweepMonitor;
+        private double lastEpochMeanLoss = Double.NaN;
+
+        private RunMonitor(TrainingMonitor sweepMonitor) {
+            this.sweepMonitor = sweepMonitor;
+        }
+
+        @Override
+        public void epochDone(int epoch, int epochs, int predictedOk, int samples, double meanLoss) {
+            lastEpochMeanLoss = meanLoss;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return sweepMonitor.isCancelled();
+        }
+    }
+
+    /**
+     * @return the configurations of the search space, in grid order or in draw
+     *         order for a random search
+     */
+    public List<IrisHyperparameters> configurations(SearchSpace space) {
+        var configured = irisTrainer.hyperparameters();
+        List<Long> hiddenLayer1Widths = valuesOr(space.hiddenLayer1Widths(), configured.hiddenLayer1Width());
+        List<Long> hiddenLayer2Widths = valuesOr(space.hiddenLayer2Widths(), configured.hiddenLayer2Width());
+        List<Float> learningRates = valuesOr(space.learningRates(), configured.learningRate());
+        List<Integer> epochs = valuesOr(space.epochs(), configured.epochs());
+        List<Integer> batchSizes = valuesOr(space.batchSizes(), configured.batchSize());
+        var gridSize = (long) hiddenLayer1Widths.size() * hiddenLayer2Widths.size() * learningRates.size()
+                * epochs.size() * batchSizes.size();
+
+        // configuration idx -> one value per hyperparameter, last one varying fastest
+        Function<Long, IrisHyperparameters> configuration = idx -> {
+            var batchSize = batchSizes.get((int) (idx % batchSizes.size()));
+            idx /= batchSizes.size();
+            var epoch = epochs.get((int) (idx % epochs.size()));
+            idx /= epochs.size();
+            var learningRate = learningRates.get((int) (idx % learningRates.size()));
+            idx /= learningRates.size();
+            var hiddenLayer2Width = hiddenLayer2Widths.get((int) (idx % hiddenLayer2Widths.size()));
+            idx /= hiddenLayer2Widths.size();
+            var hiddenLayer1Width = hiddenLayer1Widths.get((int) (idx % hiddenLayer1Widths.size()));
+            return new IrisHyperparameters(hiddenLayer1Width, hiddenLayer2Width, learningRate, epoch, batchSize);
+        };
+
+        var randomSamples = space.randomSamples() == null ? 0 : space.randomSamples();
+        if (randomSamples < 0) {
+            throw new ProtoWorkException("randomSamples can't be negative, got " + randomSamples);
+        }
+        if (randomSamples == 0 || randomSamples >= gridSize) {
+            if (gridSize > maxConfigurations) {
+                throw new ProtoWorkException("The search space has " + gridSize + " configurations, more than the "
+                        + maxConfigurations + " allowed, use randomSamples");
+            }
+            var configurations = new ArrayList<IrisHyperparameters>((int) gridSize);
+            for (long idx = 0; idx < gridSize; idx++) {
+                configurations.add(configuration.apply(idx));
+            }
+            return configurations;
+        }
+        if (randomSamples > maxConfigurations) {
+            throw new ProtoWorkException(
+                    "randomSamples is " + randomSamples + ", more than the " + maxConfigurations + " allowed");
+        }
+        // distinct draws, seeded so the same search space gives the same sweep
+        var random = new Random(IrisTrainer.RANDOM_SEED);
+        var drawnIdxs = new LinkedHashSet<Long>();
+        while (drawnIdxs.size() < randomSamples) {
+            drawnIdxs.add(random.nextLong(gridSize));
+        }
+        return drawnIdxs.stream().map(configuration).toList();
+    }
+
+    /**
+     * Trains every configuration of the search space and exports the best run as
+     * a new version.
+     *
+     * @throws CancellationException when the monitor cancels the sweep, nothing is
+     *                               exported in that case
+     */
+    public SweepResult sweep(SearchSpace space, TrainingMonitor monitor) {
+        var configurations = configurations(space);
+        IrisDataSet data;
+        String fingerprint;
+        try {
+            data = irisTrainer.loadTrainingData();
+            fingerprint = irisTrainer.sweepFingerprint();
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't load the iris training data", e);
+        }
+
+        var split = IrisTrainer.HeldOutSplit.of(data.samples(), validationFraction);
+        var trainingSamples = split.training();
+        var validationSamples = split.validation();
+
+        var threads = parallelism > 0 ? parallelism
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / intraOpThreads);
+        var sessionConfig = ConfigProto.newBuilder().setIntraOpParallelismThreads(intraOpThreads)
+                .setInterOpParallelismThreads(1).setUsePerSessionThreads(true).build();
+        logger.info("Iris sweep of [{}] configurations, [{}] at once, [{}] training and [{}] validation samples",
+                configurations.size(), threads, trainingSamples.length, validationSamples.length);
+
+        var runsDone = new AtomicInteger();
+        var pool = new ForkJoinPool(threads);
+        try (var best = new BestRun()) {
+            var tasks = new ArrayList<Callable<SweepRun>>(configurations.size());
+            for (var hyperparameters : configurations) {
+                tasks.add(() -> {
+                    var run = run(hyperparameters, data, trainingSamples, validationSamples, sessionConfig, monitor,
+                            best);
+                    monitor.sweepRunDone(runsDone.incrementAndGet(), configurations.size(), best.run());
+                    return run;
+                });
+            }
+            var runs = new ArrayList<SweepRun>(configurations.size());
+            for (var future : pool.invokeAll(tasks)) {
+                try {
+                    runs.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException cause) {
+                        throw cause;
+                    }
+                    throw new ProtoWorkException("Iris sweep run failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Iris sweep interrupted");
+                }
+            }
+            runs.sort(BEST_FIRST);
+            logger.info("Iris sweep best run: [{}]", runs.get(0));
+
+            synchronized (best) {
+                var versionPath = irisTrainer.export(best.session, fingerprint, data);
+                return new SweepResult(runs, versionPath);
+            }
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't save the best iris sweep run", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private SweepRun run(IrisHyperparameters hyperparameters, IrisDataSet data, int[] trainingSamples,
+            int[] validationSamples, ConfigProto sessionConfig, TrainingMonitor monitor, BestRun best) {
+        var graph = new Graph();
+        Session session = null;
+        var kept = false;
+        try {
+            session = new Session(graph, sessionConfig);
+            var runMonitor = new RunMonitor(monitor);
+            var trainingOps = irisTrainer.buildTraining(graph, hyperparameters);
+            irisTrainer.train(session, trainingOps, hyperparameters, data, trainingSamples.clone(), 0, runMonitor,
+                    Level.DEBUG, epoch -> false);
+            var run = new SweepRun(hyperparameters, irisTrainer.evaluate(session, data, validationSamples),
+                    validationSamples.length, runMonitor.lastEpochMeanLoss);
+            logger.info("Iris sweep run: [{}]", run);
+            kept = best.offer(run, graph, session);
+            return run;
+        } finally {
+            if (!kept) {
+                if (session != null) {
+                    session.close();
+                }
+                graph.close();
+            }
+        }
+    }
+
+    private static <T> List<T> valuesOr(List<T> values, T configured) {
+        return values == null || values.isEmpty() ? List.of(configured) : List.copyOf(values);
+    }
+}
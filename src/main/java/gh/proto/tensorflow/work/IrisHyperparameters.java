@@ -0,0 +1,32 @@
+package gh.proto.tensorflow.work;
+
+import java.util.Locale;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * What an {@link IrisTrainer} run is configured with, besides the data.
+ *
+ * @param batchSize samples per optimizer step, 1 updates the weights after
+ *                  every sample
+ */
+public record IrisHyperparameters(long hiddenLayer1Width, long hiddenLayer2Width, float learningRate, int epochs,
+        int batchSize) {
+
+    public IrisHyperparameters {
+        if (hiddenLayer1Width < 1 || hiddenLayer2Width < 1 || epochs < 1 || batchSize < 1 || !(learningRate > 0)) {
+            throw new ProtoWorkException("Invalid iris hyperparameters: hidden1=" + hiddenLayer1Width + ", hidden2="
+                    + hiddenLayer2Width + ", learningRate=" + learningRate + ", epochs=" + epochs + ", batchSize="
+                    + batchSize);
+        }
+    }
+
+    /**
+     * @return the text the training fingerprint is computed from, stable across
+     *         releases so exports stay up to date
+     */
+    String fingerprintText(long randomSeed) {
+        return String.format(Locale.ROOT, "hidden1=%d;hidden2=%d;learningRate=%s;epochs=%d;batchSize=%d;seed=%d",
+                hiddenLayer1Width, hiddenLayer2Width, learningRate, epochs, batchSize, randomSeed);
+    }
+}
@@ -0,0 +1,9 @@
+package gh.proto.tensorflow.work;
+
+import java.nio.file.Path;
+
+/**
+ * Published once a newly trained iris model version is on disk.
+ */
+public record IrisModelExported(Path versionPath) {
+}
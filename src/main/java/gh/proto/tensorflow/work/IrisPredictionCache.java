@@ -0,0 +1,185 @@
+package gh.proto.tensorflow.work;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Remembers the predicted species of recently classified samples, so repeated
+ * samples skip the tensors and the session run.
+ * <p>
+ * Set associative: a sample can only live in the few slots of the set its key
+ * hashes to and the least recently used slot of the set is evicted. The four
+ * floats of a sample are packed in two longs, nothing is allocated per lookup.
+ * All entries are dropped when the iris model is swapped.
+ */
+@Component
+public class IrisPredictionCache {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private static final int WAYS = 8;
+    private static final int LOCK_STRIPES = 64;
+
+    public record Stats(long hits, long misses, double hitRate, long evictions, long invalidations, int capacity) {
+    };
+
+    @Autowired
+    private IrisClassifier irisClassifier;
+
+    @Value("${tensorflow.iris.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${tensorflow.iris.cache.max-entries:65536}")
+    private int maxEntries;
+
+    private int setMask;
+    private long[] sepalKeys;
+    private long[] petalKeys;
+    private String[] species;
+    private long[] lastUses;
+    private int[] generations;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final long[] clocks = new long[LOCK_STRIPES];
+
+    // entries of older generations are treated as empty
+    private volatile int generation = 1;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        var sets = Integer.highestOneBit(Math.max(1, maxEntries / WAYS));
+        setMask = sets - 1;
+        var slots = sets * WAYS;
+        sepalKeys = new long[slots];
+        petalKeys = new long[slots];
+        species = new String[slots];
+        lastUses = new long[slots];
+        generations = new int[slots];
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            locks[stripe] = new Object();
+        }
+        irisClassifier.addModelSwapListener(this::invalidate);
+
+        logger.info("Iris prediction cache enabled with [{}] entries", slots);
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #put} for a prediction
+     *         made after this call
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * @return the cached species or null
+     */
+    public String get(float sepalLength, float sepalWidth, float petalLength, float petalWidth) {
+        if (!enabled) {
+            return null;
+        }
+        var sepalKey = pack(sepalLength, sepalWidth);
+        var petalKey = pack(petalLength, petalWidth);
+        var set = set(sepalKey, petalKey);
+        var stripe = set & (LOCK_STRIPES - 1);
+        var currentGeneration = generation;
+        synchronized (locks[stripe]) {
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (generations[slot] == currentGeneration && sepalKeys[slot] == sepalKey
+                        && petalKeys[slot] == petalKey) {
+                    lastUses[slot] = ++clocks[stripe];
+                    hits.increment();
+                    return species[slot];
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param predictionGeneration {@link #generation()} taken before the
+     *                             prediction, a prediction made with a model that
+     *                             was swapped out meanwhile is not cached
+     */
+    public void put(float sepalLength, float sepalWidth, float petalLength, float petalWidth, String predicted,
+            int predictionGeneration) {
+        if (!enabled || predictionGeneration != generation) {
+            return;
+        }
+        var sepalKey = pack(sepalLength, sepalWidth);
+        var petalKey = pack(petalLength, petalWidth);
+        var set = set(sepalKey, petalKey);
+        var stripe = set & (LOCK_STRIPES - 1);
+        synchronized (locks[stripe]) {
+            var victim = set * WAYS;
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (generations[slot] != predictionGeneration) {
+                    // empty or stale, no need to evict anything
+                    victim = slot;
+                    break;
+                }
+                if (sepalKeys[slot] == sepalKey && petalKeys[slot] == petalKey) {
+                    // cached by a concurrent miss on the same sample
+                    lastUses[slot] = ++clocks[stripe];
+                    return;
+                }
+                if (lastUses[slot] < lastUses[victim]) {
+                    victim = slot;
+                }
+            }
+            if (generations[victim] == predictionGeneration) {
+                evictions.increment();
+            }
+            sepalKeys[victim] = sepalKey;
+            petalKeys[victim] = petalKey;
+            species[victim] = predicted;
+            generations[victim] = predictionGeneration;
+            lastUses[victim] = ++clocks[stripe];
+        }
+    }
+
+    /**
+     * Drops all the entries.
+     */
+    public synchronized void invalidate() {
+        if (enabled) {
+            generation++;
+            invalidations.increment();
+        }
+    }
+
+    public Stats stats() {
+        var hitCount = hits.sum();
+        var missCount = misses.sum();
+        var lookups = hitCount + missCount;
+        return new Stats(hitCount, missCount, lookups == 0 ? 0 : (double) hitCount / lookups, evictions.sum(),
+                invalidations.sum(), enabled ? species.length : 0);
+    }
+
+    private int set(long sepalKey, long petalKey) {
+        var hash = sepalKey * 0x9E3779B97F4A7C15L + petalKey;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & setMask;
+    }
+
+    private static long pack(float high, float low) {
+        return ((long) Float.floatToIntBits(high) << 32) | (Float.floatToIntBits(low) & 0xFFFFFFFFL);
+    }
+}
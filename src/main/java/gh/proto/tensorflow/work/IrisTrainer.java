@@ -1,51 +1,66 @@
 package gh.proto.tensorflow.work;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntPredicate;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 import org.tensorflow.Graph;
+import org.tensorflow.Operand;
+import org.tensorflow.Output;
 import org.tensorflow.Result;
 import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Session;
 import org.tensorflow.SessionFunction;
 import org.tensorflow.Signature;
-import org.tensorflow.Tensor;
 import org.tensorflow.framework.initializers.Glorot;
 import org.tensorflow.framework.initializers.VarianceScaling.Distribution;
 import org.tensorflow.framework.losses.MeanSquaredError;
 import org.tensorflow.framework.losses.Reduction;
 import org.tensorflow.framework.optimizers.Adam;
 import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.ndarray.buffer.FloatDataBuffer;
+import org.tensorflow.op.Op;
 import org.tensorflow.op.Ops;
 import org.tensorflow.op.core.Placeholder;
+import org.tensorflow.types.TFloat16;
 import org.tensorflow.types.TFloat32;
+import org.tensorflow.types.TInt32;
 
 import gh.proto.tensorflow.ProtoWorkException;
-import jakarta.annotation.PostConstruct;
 
 @Component
 public class IrisTrainer {
 
     private final Logger logger = LogManager.getLogger(getClass());
 
-    private static final String CSV_SEPARATOR_REGEX = ",";
-
     /**
-     * number of records in the input csv file with the data
+     * written next to the exported model, identifies the training data and
+     * hyperparameters it was produced from
      */
-    private static final int INPUT_DATA_LINES = 150;
+    private static final String FINGERPRINT_FILE_NAME = "training.fingerprint";
+
+    private static final String SWEEP_FINGERPRINT_TEXT = "sweep";
 
     /**
      * set by number of inputs: 1. sepal length, 2. sepal width, 3. petal length ,
@@ -53,32 +68,25 @@ public class IrisTrainer {
      */
     private static final long INPUT_LAYER_WIDTH = 4L;
 
-    private static final long HIDDEN_LAYER_1_WIDTH = 5L;
-    private static final long HIDDEN_LAYER_2_WIDTH = 4L;
+    // discovered empirically, see IrisHyperparameterSweep to search for better
+    // ones
+    static final long DEFAULT_HIDDEN_LAYER_1_WIDTH = 5L;
+    static final long DEFAULT_HIDDEN_LAYER_2_WIDTH = 4L;
+    static final float DEFAULT_LEARNING_RATE = 0.01F;
+    static final int DEFAULT_TRAINING_EPOCHS = 4;
+    static final int DEFAULT_BATCH_SIZE = 1;
 
-    // discovered empirically
-    private static final float LEARNING_RATE = 0.01F;
-    private static final int TRAINING_EPOCHS = 4;
-    private static final long RANDOM_SEED = 1234567L;
+    public static final IrisHyperparameters DEFAULT_HYPERPARAMETERS = new IrisHyperparameters(
+            DEFAULT_HIDDEN_LAYER_1_WIDTH, DEFAULT_HIDDEN_LAYER_2_WIDTH, DEFAULT_LEARNING_RATE, DEFAULT_TRAINING_EPOCHS,
+            DEFAULT_BATCH_SIZE);
+
+    static final long RANDOM_SEED = 1234567L;
 
     /**
      * set by number of features: 1. Iris-setosa, 2. Iris-versicolor, 3.
      * Iris-virginica
      */
-    private static final long OUTPUT_LAYER_WIDTH = 3L;
-
-    // must match the order from the input csv file with the
-    // data(train_data/iris/bezdekIris.data)
-    private static final int CSV_SEPAL_LENGTH_IDX = 0;
-    private static final int CSV_SEPAL_WIDTH_IDX = 1;
-    private static final int CSV_PETAL_LENGTH_IDX = 2;
-    private static final int CSV_PETAL_WIDTH_IDX = 3;
-    private static final int CSV_SPECIES_NAME_IDX = 4;
-
-    // chosen by us and must be consistent thru training and running
-    private static final int OUTPUT_IRIS_SETOSA_IDX = 0;
-    private static final int OUTPUT_IRIS_VERSICOLOUR_IDX = 1;
-    private static final int OUTPUT_IRIS_VIRGINICA_IDX = 2;
+    private static final long OUTPUT_LAYER_WIDTH = IrisDataSet.SPECIES;
 
     private static final String OP_NAME_INPUT_LAYER_PLACEHOLDER = "inputLayerPlaceholder";
     private static final String OP_NAME_HIDDEN_LAYER1_WEIGHTS = "hiddenLayer1Weights";
@@ -88,6 +96,47 @@ public class IrisTrainer {
     private static final String OP_NAME_OUTPUT_LAYER_BIASES = "outputLayerBiases";
     private static final String OP_NAME_OUTPUT_LAYER_WEIGHTS = "outputLayerWeights";
     private static final String OP_NAME_OUTPUT_ACTIVATION = "outputActivation";
+    private static final String OP_NAME_OUTPUT_CLASS = "outputClass";
+
+    /**
+     * the trained variables of the network, without the optimizer ones
+     */
+    private static final List<String> NETWORK_VARIABLES = List.of(OP_NAME_HIDDEN_LAYER1_WEIGHTS,
+            OP_NAME_HIDDEN_LAYER1_BIASES, OP_NAME_HIDDEN_LAYER2_WEIGHTS, OP_NAME_HIDDEN_LAYER2_BIASES,
+            OP_NAME_OUTPUT_LAYER_WEIGHTS, OP_NAME_OUTPUT_LAYER_BIASES);
+
+    /**
+     * What an export holds.
+     */
+    public enum ExportMode {
+        /**
+         * the whole training session: the network, its loss, the optimizer ops and
+         * slot variables
+         */
+        TRAINING,
+        /**
+         * the network only, its trained variables folded into constants of the
+         * same names
+         */
+        INFERENCE
+    }
+
+    /**
+     * How the weights of an {@link ExportMode#INFERENCE} export are stored, they
+     * are turned back into float32 when the graph runs.
+     */
+    public enum WeightPrecision {
+        FLOAT32,
+        FLOAT16,
+        /**
+         * symmetric per tensor, stored as uint8 around {@value #INT8_ZERO_POINT}
+         * since TF Java has no int8 tensor
+         */
+        INT8;
+
+        private static final int INT8_ZERO_POINT = 128;
+        private static final float INT8_MAX = 127f;
+    }
 
     // Iris data downloaded from: https://archive.ics.uci.edu/dataset/53/iris
     @Value("classpath:train_data/iris/bezdekIris.data")
@@ -96,120 +145,726 @@ public class IrisTrainer {
     @Value("${tensorflow.iris.path}")
     private String exportPath;
 
-    private enum IrisSpecies {
-        IRIS_SETOSA, IRIS_VERSICOLOUR, IRIS_VIRGINICA;
-
-        static IrisSpecies getIrisSpecies(String speciesName) {
-            switch (speciesName) {
-            case "Iris-setosa":
-                return IRIS_SETOSA;
-            case "Iris-versicolor":
-                return IRIS_VERSICOLOUR;
-            case "Iris-virginica":
-                return IRIS_VIRGINICA;
-            default:
-                throw new ProtoWorkException("Unknown species name: " + speciesName);
+    /**
+     * exported versions kept on disk, older ones are deleted after each export
+     */
+    @Value("${tensorflow.iris.export.keep-versions:3}")
+    private int keepVersions;
+
+    @Value("${tensorflow.iris.export.mode:inference}")
+    private ExportMode exportMode;
+
+    @Value("${tensorflow.iris.export.precision:float32}")
+    private WeightPrecision exportPrecision;
+
+    /**
+     * part of the data samples a reduced precision export must predict as the
+     * float32 network does, float32 is exported instead otherwise
+     */
+    @Value("${tensorflow.iris.export.min-agreement:0.99}")
+    private double exportMinAgreement;
+
+    /**
+     * number of samples per optimizer step, 1 updates the weights after every
+     * sample; the other hyperparameters were tuned for 1, bigger batches make
+     * fewer steps per epoch and need more epochs
+     */
+    @Value("${tensorflow.iris.training.batch-size:" + DEFAULT_BATCH_SIZE + "}")
+    private int batchSize;
+
+    @Value("${tensorflow.iris.training.hidden-layer-1-width:" + DEFAULT_HIDDEN_LAYER_1_WIDTH + "}")
+    private long hiddenLayer1Width;
+
+    @Value("${tensorflow.iris.training.hidden-layer-2-width:" + DEFAULT_HIDDEN_LAYER_2_WIDTH + "}")
+    private long hiddenLayer2Width;
+
+    @Value("${tensorflow.iris.training.learning-rate:" + DEFAULT_LEARNING_RATE + "}")
+    private float learningRate;
+
+    /**
+     * the most epochs a run trains, it stops earlier with early stopping
+     */
+    @Value("${tensorflow.iris.training.epochs:" + DEFAULT_TRAINING_EPOCHS + "}")
+    private int epochs;
+
+    /**
+     * where the variables are checkpointed during training, no checkpoints when
+     * empty; a run resumes from the latest checkpoint of an interrupted run
+     * with the same training data and hyperparameters
+     */
+    @Value("${tensorflow.iris.training.checkpoint.path:}")
+    private String checkpointPath;
+
+    @Value("${tensorflow.iris.training.checkpoint.every-epochs:1}")
+    private int checkpointEveryEpochs;
+
+    @Value("${tensorflow.iris.training.checkpoint.keep:2}")
+    private int keepCheckpoints;
+
+    /**
+     * start from the weights of the latest exported model instead of fresh ones,
+     * when its layer widths are the configured ones
+     */
+    @Value("${tensorflow.iris.training.warm-start:false}")
+    private boolean warmStart;
+
+    /**
+     * stop once the held-out accuracy didn't improve for this many epochs, 0
+     * trains all the epochs on all the samples
+     */
+    @Value("${tensorflow.iris.training.early-stopping.patience:0}")
+    private int earlyStoppingPatience;
+
+    /**
+     * part of the samples held out of training to score the epochs
+     */
+    @Value("${tensorflow.iris.training.early-stopping.validation-fraction:0.2}")
+    private double earlyStoppingValidationFraction;
+
+    private MessageDigest dataDigest;
+
+    /**
+     * @return the configured hyperparameters, the ones a plain training run uses
+     */
+    public IrisHyperparameters hyperparameters() {
+        return new IrisHyperparameters(hiddenLayer1Width, hiddenLayer2Width, learningRate, epochs, batchSize);
+    }
+
+    public Path doTrain() {
+        return doTrain(TrainingMonitor.NONE);
+    }
+
+    public Path doTrain(TrainingMonitor monitor) {
+        return doTrain(monitor, warmStart);
+    }
+
+    /**
+     * Trains and exports the model as a new version, then records the fingerprint
+     * of what it was trained from.
+     * <p>
+     * Resumes from the latest checkpoint of the same training when there is one,
+     * else starts from the latest exported model weights when warm starting.
+     *
+     * @return the directory of the exported version
+     * @throws CancellationException when the monitor cancels the run, nothing is
+     *                               exported in that case, its checkpoints are
+     *                               kept to resume it
+     */
+    public Path doTrain(TrainingMonitor monitor, boolean warmStart) {
+        var hyperparameters = hyperparameters();
+        try (Graph graph = new Graph(); Session session = new Session(graph);
+                var plateau = new Plateau(earlyStoppingPatience)) {
+            var fingerprint = trainingFingerprint(fingerprintText(hyperparameters));
+            var trainData = loadTrainingData();
+            var earlyStopping = earlyStoppingPatience > 0;
+            var split = earlyStopping ? HeldOutSplit.of(trainData.samples(), earlyStoppingValidationFraction)
+                    : new HeldOutSplit(HeldOutSplit.allSamples(trainData.samples()), new int[0]);
+            var trainingOps = buildTraining(graph, hyperparameters);
+
+            var checkpoints = checkpointPath.isBlank() ? null
+                    : new IrisCheckpoints(checkpointPath, fingerprint, keepCheckpoints);
+            var checkpoint = checkpoints == null ? Optional.<IrisCheckpoints.Checkpoint>empty() : checkpoints.latest();
+            var firstEpoch = 0;
+            if (checkpoint.isPresent()) {
+                var bestWeights = checkpoints.bestWeights(checkpoint.get());
+                if (!bestWeights.isEmpty()) {
+                    plateau.keepBestWeights(bestWeights);
+                }
+                checkpoints.restore(session, checkpoint.get());
+                firstEpoch = checkpoint.get().epoch() + 1;
+                plateau.bestPredictedOk = checkpoint.get().bestValidationPredictedOk();
+                plateau.bestEpoch = checkpoint.get().bestEpoch();
+                logger.info("Resuming the iris training from the checkpoint of epoch [{}]", checkpoint.get().epoch());
+            } else {
+                if (checkpoints != null) {
+                    // of other trainings, never to be resumed
+                    checkpoints.clear();
+                }
+                if (warmStart) {
+                    warmStart(graph, session);
+                }
+            }
+
+            var validationSamples = split.validation();
+            train(session, trainingOps, hyperparameters, trainData, split.training(), firstEpoch, monitor,
+                    Level.INFO, epoch -> {
+                        var stop = false;
+                        if (earlyStopping) {
+                            var predictedOk = evaluate(session, trainData, validationSamples);
+                            logger.info(" *** After training epoch [{}] predicted as expected for [{}]/[{}] held-out",
+                                    epoch, predictedOk, validationSamples.length);
+                            stop = plateau.reached(epoch, predictedOk);
+                            if (plateau.bestEpoch == epoch) {
+                                plateau.keepBestWeights(copyNetwork(session));
+                            }
+                            if (stop) {
+                                logger.info("Stopping the iris training early, no held-out improvement since "
+                                        + "epoch [{}]", plateau.bestEpoch);
+                            }
+                        }
+                        if (checkpoints != null && !stop && epoch + 1 < hyperparameters.epochs()
+                                && (epoch + 1) % checkpointEveryEpochs == 0) {
+                            try {
+                                checkpoints.save(session, epoch, plateau.bestPredictedOk, plateau.bestEpoch,
+                                        plateau.bestWeights);
+                            } catch (IOException e) {
+                                throw new ProtoWorkException("Can't checkpoint the iris training", e);
+                            }
+                        }
+                        return stop;
+                    });
+
+            // the last epochs can score worse than the best one
+            if (plateau.bestWeights != null) {
+                assignNetwork(graph, session, plateau.bestWeights);
+                logger.info("Exporting the weights of epoch [{}], [{}]/[{}] held-out predicted as expected",
+                        plateau.bestEpoch, plateau.bestPredictedOk, validationSamples.length);
+            } else if (earlyStopping) {
+                // resumed from a checkpoint without them
+                logger.warn("Exporting the weights of the last epoch, those of the best epoch [{}] with [{}]/[{}] "
+                        + "held-out predicted as expected were not kept", plateau.bestEpoch, plateau.bestPredictedOk,
+                        validationSamples.length);
+            }
+            var versionPath = export(session, fingerprint, trainData);
+            if (checkpoints != null) {
+                checkpoints.clear();
             }
+            return versionPath;
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't train/save", e);
+        }
+    }
+
+    /**
+     * Tracks the best held-out score of the epochs and the network weights that
+     * scored it.
+     */
+    private static final class Plateau implements AutoCloseable {
+
+        private final int patience;
+        // -1 so the first scored epoch is an improvement
+        private int bestPredictedOk = -1;
+        private int bestEpoch = -1;
+        private List<TFloat32> bestWeights;
+
+        private Plateau(int patience) {
+            this.patience = patience;
+        }
+
+        /**
+         * @return true when the score didn't improve for the patience epochs
+         */
+        private boolean reached(int epoch, int predictedOk) {
+            if (predictedOk > bestPredictedOk) {
+                bestPredictedOk = predictedOk;
+                bestEpoch = epoch;
+                return false;
+            }
+            return epoch - bestEpoch >= patience;
+        }
+
+        private void keepBestWeights(List<TFloat32> weights) {
+            close();
+            bestWeights = weights;
+        }
+
+        @Override
+        public void close() {
+            if (bestWeights != null) {
+                bestWeights.forEach(TFloat32::close);
+                bestWeights = null;
+            }
+        }
+    }
+
+    /**
+     * Samples of the data set split between training and scoring, seeded so every
+     * run gets the same split.
+     */
+    record HeldOutSplit(int[] training, int[] validation) {
+
+        static HeldOutSplit of(int samples, double validationFraction) {
+            if (samples < 2) {
+                throw new ProtoWorkException("Holding out iris samples needs at least 2 samples, got " + samples);
+            }
+            var sampleOrder = allSamples(samples);
+            shuffle(sampleOrder, new Random(RANDOM_SEED));
+            var validationSize = (int) Math.max(1, Math.min(samples - 1, Math.round(samples * validationFraction)));
+            return new HeldOutSplit(Arrays.copyOfRange(sampleOrder, validationSize, samples),
+                    Arrays.copyOfRange(sampleOrder, 0, validationSize));
         }
-    };
 
-    private record IrisDataLine(float sepalLength, float sepalWidth, float petalLength, float petalWidth,
-            IrisSpecies irisSpecies) {
+        static int[] allSamples(int samples) {
+            var sampleIdxs = new int[samples];
+            for (int sampleIdx = 0; sampleIdx < samples; sampleIdx++) {
+                sampleIdxs[sampleIdx] = sampleIdx;
+            }
+            return sampleIdxs;
+        }
     };
 
-    @PostConstruct
-    public void doTrain() {
-        try (Graph graph = new Graph(); Session session = new Session(graph)) {
-            train(graph, session);
-            save(session);
+    /**
+     * Sets the network variables to the ones of the latest exported model, the
+     * optimizer state starts fresh.
+     */
+    private void warmStart(Graph tfGraph, Session tfSession) {
+        var latestVersion = SavedModelVersions.latest(exportPath);
+        if (latestVersion.isEmpty()) {
+            logger.info("No exported iris model to warm start from, training from fresh weights");
+            return;
+        }
+        try (var exportedModel = SavedModelBundle.load(latestVersion.get().toString(), SavedModelBundle.DEFAULT_TAG);
+                Result exportedWeights = snapshotNetwork(exportedModel.session())) {
+            // the initializers run first, the assignments overwrite them
+            tfSession.initialize();
+            if (!assignNetwork(tfGraph, tfSession, exportedWeights)) {
+                logger.warn("Exported iris model [{}] has other layer widths, training from fresh weights",
+                        latestVersion.get());
+                return;
+            }
+        }
+        logger.info("Warm started the iris training from the exported model [{}]", latestVersion.get());
+    }
+
+    /**
+     * @return the values of the network variables, in {@link #NETWORK_VARIABLES}
+     *         order
+     */
+    private static Result snapshotNetwork(Session tfSession) {
+        var runner = tfSession.runner();
+        NETWORK_VARIABLES.forEach(runner::fetch);
+        return runner.run();
+    }
+
+    /**
+     * @return copies of the values of the network variables, in
+     *         {@link #NETWORK_VARIABLES} order, to be closed by the caller; a
+     *         fetched variable shares its buffer with the variable, the next
+     *         training steps would change it
+     */
+    private static List<TFloat32> copyNetwork(Session tfSession) {
+        try (Result weights = snapshotNetwork(tfSession)) {
+            var copies = new ArrayList<TFloat32>(weights.size());
+            for (int idx = 0; idx < weights.size(); idx++) {
+                var weight = (TFloat32) weights.get(idx);
+                copies.add(TFloat32.tensorOf(weight.shape(), weight::copyTo));
+            }
+            return copies;
+        }
+    }
+
+    /**
+     * Sets the network variables to a {@link #snapshotNetwork} result.
+     *
+     * @return false, assigning nothing, when a variable shape differs
+     */
+    private static boolean assignNetwork(Graph tfGraph, Session tfSession, Result weights) {
+        var weightTensors = new ArrayList<TFloat32>(weights.size());
+        for (int idx = 0; idx < weights.size(); idx++) {
+            weightTensors.add((TFloat32) weights.get(idx));
+        }
+        return assignNetwork(tfGraph, tfSession, weightTensors);
+    }
+
+    /**
+     * @param weights the network variable values, in {@link #NETWORK_VARIABLES}
+     *                order
+     */
+    private static boolean assignNetwork(Graph tfGraph, Session tfSession, List<TFloat32> weights) {
+        if (weights.size() != NETWORK_VARIABLES.size()) {
+            return false;
+        }
+        var tensorFlowApi = Ops.create(tfGraph);
+        var assignRunner = tfSession.runner();
+        for (int idx = 0; idx < NETWORK_VARIABLES.size(); idx++) {
+            var weight = weights.get(idx);
+            Output<TFloat32> variable = tfGraph.operation(NETWORK_VARIABLES.get(idx)).output(0);
+            if (!weight.shape().equals(variable.shape())) {
+                return false;
+            }
+            var value = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(variable.shape()));
+            assignRunner.feed(value, weight).addTarget(tensorFlowApi.assign(variable, value));
+        }
+        assignRunner.run();
+        return true;
+    }
+
+    private String fingerprintText(IrisHyperparameters hyperparameters) {
+        var fingerprintText = hyperparameters.fingerprintText(RANDOM_SEED);
+        if (earlyStoppingPatience > 0) {
+            // training on fewer samples gives another model
+            fingerprintText += String.format(Locale.ROOT, ";earlyStoppingPatience=%d;validationFraction=%s",
+                    earlyStoppingPatience, earlyStoppingValidationFraction);
+        }
+        return fingerprintText + exportFingerprintText();
+    }
+
+    /**
+     * @return the export settings, the same weights exported otherwise give
+     *         another model
+     */
+    private String exportFingerprintText() {
+        return String.format(Locale.ROOT, ";exportMode=%s;exportPrecision=%s", exportMode, exportPrecision);
+    }
+
+    /**
+     * Exports the trained network as a new version and records the fingerprint of
+     * what it was trained from.
+     *
+     * @param data the training data of the run, a reduced precision export is
+     *             checked against it
+     * @return the directory of the exported version
+     */
+    Path export(Session tfSession, String fingerprint, IrisDataSet data) throws IOException {
+        var versionPath = exportMode == ExportMode.INFERENCE ? saveInference(tfSession, data) : save(tfSession);
+        Files.writeString(versionPath.resolve(FINGERPRINT_FILE_NAME), fingerprint, StandardCharsets.UTF_8);
+        SavedModelVersions.prune(exportPath, keepVersions);
+        return versionPath;
+    }
+
+    /**
+     * @return the fingerprint of a sweep export: the training data and the
+     *         export settings only, the hyperparameters being the sweep outcome
+     */
+    String sweepFingerprint() throws IOException {
+        return trainingFingerprint(SWEEP_FINGERPRINT_TEXT + exportFingerprintText());
+    }
+
+    /**
+     * @return true when the latest exported model was trained from the current
+     *         training data with the current hyperparameters, or was the best
+     *         run of a sweep over the current training data, and was exported
+     *         with the current export mode and precision
+     */
+    public boolean isExportUpToDate() {
+        var latestVersion = SavedModelVersions.latest(exportPath);
+        if (latestVersion.isEmpty()) {
+            return false;
+        }
+        var fingerprintFile = latestVersion.get().resolve(FINGERPRINT_FILE_NAME);
+        try {
+            if (!Files.isRegularFile(fingerprintFile)) {
+                return false;
+            }
+            var fingerprint = Files.readString(fingerprintFile, StandardCharsets.UTF_8);
+            return fingerprint.equals(trainingFingerprint(fingerprintText(hyperparameters())))
+                    || fingerprint.equals(sweepFingerprint());
         } catch (IOException e) {
-            throw new ProtoWorkException("Can't train/save", e);
+            throw new ProtoWorkException("Can't check the exported model fingerprint", e);
+        }
+    }
+
+    private String trainingFingerprint(String hyperparameters) throws IOException {
+        var digest = dataDigest();
+        digest.update(hyperparameters.getBytes(StandardCharsets.UTF_8));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return a digest that read the training data, which never changes while
+     *         running, so the data is hashed once whatever the fingerprints
+     */
+    private synchronized MessageDigest dataDigest() throws IOException {
+        try {
+            if (dataDigest == null) {
+                var digest = MessageDigest.getInstance("SHA-256");
+                try (var dataStream = new DigestInputStream(inputData.getInputStream(), digest)) {
+                    dataStream.transferTo(OutputStream.nullOutputStream());
+                }
+                dataDigest = digest;
+            }
+            return (MessageDigest) dataDigest.clone();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ProtoWorkException("SHA-256 not available", e);
+        } catch (CloneNotSupportedException e) {
+            throw new ProtoWorkException("SHA-256 digest can't be copied", e);
         }
     }
 
-    public void save(Session tfSession) throws IOException {
+    /**
+     * Exports the network as a new version under the export path.
+     *
+     * @return the directory of the exported version
+     */
+    public Path save(Session tfSession) throws IOException {
         Signature signature = Signature.builder().key(Signature.DEFAULT_KEY)
                 .input(OP_NAME_INPUT_LAYER_PLACEHOLDER,
                         tfSession.graph().operation(OP_NAME_INPUT_LAYER_PLACEHOLDER).output(0))
                 .output(OP_NAME_OUTPUT_ACTIVATION, tfSession.graph().operation(OP_NAME_OUTPUT_ACTIVATION).output(0))
+                .output(OP_NAME_OUTPUT_CLASS, tfSession.graph().operation(OP_NAME_OUTPUT_CLASS).output(0))
                 .build();
         SessionFunction sessionFunction = SessionFunction.create(signature, tfSession);
-        SavedModelBundle.exporter(exportPath).withFunction(sessionFunction).withTags(SavedModelBundle.DEFAULT_TAG)
-                .export();
+        var versionPath = SavedModelVersions.next(exportPath);
+        SavedModelBundle.exporter(versionPath.toString()).withFunction(sessionFunction)
+                .withTags(SavedModelBundle.DEFAULT_TAG).export();
+        return versionPath;
     }
 
-    public void train(Graph tfGraph, Session tfSession) throws IOException {
-        var trainData = readTrainData();
-        // very important to shuffle because the grouping of the data in the input csv
-        // can appear as an unwanted pattern during training
-        Collections.shuffle(trainData, new Random(RANDOM_SEED));
+    /**
+     * Exports the inference only network of a trained session as a new version,
+     * in the configured weight precision when it passes the accuracy check.
+     *
+     * @param data the samples of the accuracy check
+     * @return the directory of the exported version
+     */
+    public Path saveInference(Session trainedSession, IrisDataSet data) throws IOException {
+        try (Result weights = snapshotNetwork(trainedSession)) {
+            var precision = checkedPrecision(trainedSession, weights, data);
+            try (Graph graph = new Graph(); Session session = new Session(graph)) {
+                buildFrozenNetwork(Ops.create(graph), weights, precision);
+                var versionPath = save(session);
+                logger.info("Exported the inference only iris network with [{}] weights to [{}]", precision,
+                        versionPath);
+                return versionPath;
+            }
+        }
+    }
+
+    /**
+     * @return the configured precision when the network with its weights
+     *         predicts the training data as the trained network does, else
+     *         float32
+     */
+    private WeightPrecision checkedPrecision(Session trainedSession, Result weights, IrisDataSet data) {
+        if (exportPrecision == WeightPrecision.FLOAT32) {
+            return WeightPrecision.FLOAT32;
+        }
+        var samples = HeldOutSplit.allSamples(data.samples());
+        var trainedClasses = predictedClasses(trainedSession, data, samples);
+        int[] reducedClasses;
+        try (Graph graph = new Graph(); Session session = new Session(graph)) {
+            buildFrozenNetwork(Ops.create(graph), weights, exportPrecision);
+            reducedClasses = predictedClasses(session, data, samples);
+        }
+
+        var agreeing = 0;
+        var trainedPredictedOk = 0;
+        var reducedPredictedOk = 0;
+        for (int idx = 0; idx < samples.length; idx++) {
+            var expectedIdx = data.outputIdx(samples[idx]);
+            agreeing += trainedClasses[idx] == reducedClasses[idx] ? 1 : 0;
+            trainedPredictedOk += trainedClasses[idx] == expectedIdx ? 1 : 0;
+            reducedPredictedOk += reducedClasses[idx] == expectedIdx ? 1 : 0;
+        }
+        logger.info("Iris [{}] weights predict as float32 for [{}]/[{}], as expected for [{}] against [{}]",
+                exportPrecision, agreeing, samples.length, reducedPredictedOk, trainedPredictedOk);
+        if (agreeing < exportMinAgreement * samples.length) {
+            logger.warn("Iris [{}] weights agree with float32 on less than [{}] of the samples, exporting float32",
+                    exportPrecision, exportMinAgreement);
+            return WeightPrecision.FLOAT32;
+        }
+        return exportPrecision;
+    }
+
+    IrisDataSet loadTrainingData() throws IOException {
+        return IrisDataSet.load(inputData);
+    }
 
+    /**
+     * Builds the network with the hyperparameters and its training ops in an
+     * empty graph.
+     */
+    TrainingOps buildTraining(Graph tfGraph, IrisHyperparameters hyperparameters) {
         var tensorFlowApi = Ops.create(tfGraph);
-        buildNetwork(tensorFlowApi);
+        buildNetwork(tensorFlowApi, hyperparameters);
+        return buildTrainingOps(tfGraph, tensorFlowApi, hyperparameters);
+    }
+
+    /**
+     * Trains the network on a subset of the data.
+     *
+     * @param sampleOrder    indices of the data samples to train on, reordered
+     *                       on every epoch
+     * @param firstEpoch     0, or the epoch to resume at
+     * @param epochLevel     level of the per epoch log
+     * @param stopAfterEpoch called after every epoch, stops the training when
+     *                       true
+     */
+    void train(Session tfSession, TrainingOps trainingOps, IrisHyperparameters hyperparameters,
+            IrisDataSet trainData, int[] sampleOrder, int firstEpoch, TrainingMonitor monitor, Level epochLevel,
+            IntPredicate stopAfterEpoch) {
+        if (sampleOrder.length == 0) {
+            throw new ProtoWorkException("No iris samples to train on, the data set has " + trainData.samples());
+        }
+        // the batch size is at least 1, see IrisHyperparameters
+
+        // very important to shuffle because the grouping of the data in the input csv
+        // can appear as an unwanted pattern during training, a new order is used on
+        // every epoch
+        var random = new Random(RANDOM_SEED);
+        // a resumed run sees the sample orders it would have seen without stopping
+        for (int skippedEpoch = 0; skippedEpoch < firstEpoch; skippedEpoch++) {
+            shuffle(sampleOrder, random);
+        }
+
+        // the same tensors are refilled for every batch, the last batch of an epoch is
+        // smaller when the data size is not a multiple of the batch size
+        var fullBatchSize = Math.min(hyperparameters.batchSize(), sampleOrder.length);
+        var lastBatchSize = sampleOrder.length % fullBatchSize;
+        try (var fullBatch = new TrainingBatch(fullBatchSize);
+                var lastBatch = lastBatchSize == 0 ? null : new TrainingBatch(lastBatchSize)) {
+            for (int currentTrainingEpoch = firstEpoch; currentTrainingEpoch < hyperparameters
+                    .epochs(); currentTrainingEpoch++) {
+                shuffle(sampleOrder, random);
+
+                var numberOfPredictedOk = 0;
+                var lossSum = 0.0;
+                for (int batchStart = 0; batchStart < sampleOrder.length; batchStart += fullBatchSize) {
+                    if (monitor.isCancelled()) {
+                        throw new CancellationException("Training cancelled in epoch " + currentTrainingEpoch);
+                    }
+                    var batch = batchStart + fullBatchSize <= sampleOrder.length ? fullBatch : lastBatch;
+                    batch.fill(trainData, sampleOrder, batchStart);
+
+                    try (Result result = runTrainingStep(tfSession, trainingOps, batch)) {
+
+                        var outputTensor = (TFloat32) result.get(0);
+                        lossSum += ((TFloat32) result.get(1)).getFloat() * batch.size;
+                        for (int row = 0; row < batch.size; row++) {
+                            if (predictedOutputIdx(outputTensor, row) == trainData
+                                    .outputIdx(sampleOrder[batchStart + row])) {
+                                numberOfPredictedOk++;
+                            }
+                        }
+                    }
+                }
+                logger.log(epochLevel,
+                        " *** For training epoch [{}] predicted as expected for [{}]/[{}], mean loss [{}]",
+                        currentTrainingEpoch, numberOfPredictedOk, sampleOrder.length, lossSum / sampleOrder.length);
+                monitor.epochDone(currentTrainingEpoch, hyperparameters.epochs(), numberOfPredictedOk,
+                        sampleOrder.length, lossSum / sampleOrder.length);
+                if (stopAfterEpoch.test(currentTrainingEpoch)) {
+                    break;
+                }
+            }
+        }
+    }
 
-        // loss and optimizer only needed during training
+    /**
+     * Scores a trained network on samples it was not trained on.
+     *
+     * @return the number of samples predicted as expected
+     */
+    int evaluate(Session tfSession, IrisDataSet data, int[] samples) {
+        var predictedIdxs = predictedClasses(tfSession, data, samples);
+        var predictedOk = 0;
+        for (int row = 0; row < samples.length; row++) {
+            if (predictedIdxs[row] == data.outputIdx(samples[row])) {
+                predictedOk++;
+            }
+        }
+        return predictedOk;
+    }
+
+    /**
+     * @return the predicted output index of each sample
+     */
+    private static int[] predictedClasses(Session tfSession, IrisDataSet data, int[] samples) {
+        try (var batch = new TrainingBatch(samples.length)) {
+            batch.fill(data, samples, 0);
+            try (Result result = tfSession.runner().feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, batch.inputData)
+                    .fetch(OP_NAME_OUTPUT_CLASS).run()) {
+                var predictedIdxs = new int[samples.length];
+                ((TInt32) result.get(0)).copyTo(DataBuffers.of(predictedIdxs, false, false));
+                return predictedIdxs;
+            }
+        }
+    }
+
+    /**
+     * Loss and optimizer, only needed during training.
+     */
+    record TrainingOps(Placeholder<TFloat32> expectedOutput, Operand<?> loss, Op minimize) {
+    };
+
+    TrainingOps buildTrainingOps(Graph tfGraph, Ops tensorFlowApi) {
+        return buildTrainingOps(tfGraph, tensorFlowApi, hyperparameters());
+    }
+
+    TrainingOps buildTrainingOps(Graph tfGraph, Ops tensorFlowApi, IrisHyperparameters hyperparameters) {
         var meanSquaredErrorLoss = new MeanSquaredError(Reduction.AUTO);
-        var optimizer = new Adam(tfGraph, LEARNING_RATE);
+        var optimizer = new Adam(tfGraph, hyperparameters.learningRate());
 
         var trainingOutputPlaceholder = tensorFlowApi.placeholder(TFloat32.class,
                 Placeholder.shape(Shape.of(-1, OUTPUT_LAYER_WIDTH)));
-        var minimize = optimizer.minimize(meanSquaredErrorLoss.call(tensorFlowApi, trainingOutputPlaceholder,
-                tfGraph.operation(OP_NAME_OUTPUT_ACTIVATION).output(0)));
-
-        for (int currentTrainingEpoch = 0; currentTrainingEpoch < TRAINING_EPOCHS; currentTrainingEpoch++) {
-            var numberOfPredictedOk = 0;
-            for (int inputDataIdx = 0; inputDataIdx < trainData.size(); inputDataIdx++) {
-                var currentInputData = trainData.get(inputDataIdx);
-                try (var inputDataTensor = Tensor.of(TFloat32.class, Shape.of(1, INPUT_LAYER_WIDTH), data -> {
-                    data.setFloat(currentInputData.sepalLength, 0, CSV_SEPAL_LENGTH_IDX);
-                    data.setFloat(currentInputData.sepalWidth, 0, CSV_SEPAL_WIDTH_IDX);
-                    data.setFloat(currentInputData.petalLength, 0, CSV_PETAL_LENGTH_IDX);
-                    data.setFloat(currentInputData.petalWidth, 0, CSV_PETAL_WIDTH_IDX);
-                }); var expectedOuputTensor = Tensor.of(TFloat32.class, Shape.of(1, OUTPUT_LAYER_WIDTH), data -> {
-                    // 0 = 0%, 1 = 100% chance to be the expected species
-                    // only 1 of the 3 must be set to 1, the rest 0
-                    data.setFloat(currentInputData.irisSpecies == IrisSpecies.IRIS_SETOSA ? 1 : 0, 0,
-                            OUTPUT_IRIS_SETOSA_IDX);
-                    data.setFloat(currentInputData.irisSpecies == IrisSpecies.IRIS_VERSICOLOUR ? 1 : 0, 0,
-                            OUTPUT_IRIS_VERSICOLOUR_IDX);
-                    data.setFloat(currentInputData.irisSpecies == IrisSpecies.IRIS_VIRGINICA ? 1 : 0, 0,
-                            OUTPUT_IRIS_VIRGINICA_IDX);
-                })) {
-
-                    Result result = tfSession.runner().addTarget(minimize)
-                            .feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, inputDataTensor)
-                            .feed(trainingOutputPlaceholder, expectedOuputTensor).fetch(OP_NAME_OUTPUT_ACTIVATION)
-                            .run();
-
-                    var outputTensor = (TFloat32) result.get(0);
-                    var chanceIrisSetosa = outputTensor.getFloat(0, OUTPUT_IRIS_SETOSA_IDX);
-                    var chanceIrisVersicolour = outputTensor.getFloat(0, OUTPUT_IRIS_VERSICOLOUR_IDX);
-                    var chanceIrisVirginica = outputTensor.getFloat(0, OUTPUT_IRIS_VIRGINICA_IDX);
-                    var speciesToChanceMap = Map.of(IrisSpecies.IRIS_SETOSA, chanceIrisSetosa,
-                            IrisSpecies.IRIS_VERSICOLOUR, chanceIrisVersicolour, IrisSpecies.IRIS_VIRGINICA,
-                            chanceIrisVirginica);
-                    var predictedSpecies = speciesToChanceMap.entrySet().stream().sorted((entry1, entry2) -> {
-                        return entry1.getValue() > entry2.getValue() ? -1 : 1;
-                    }).toList().get(0).getKey();
-                    var predictedOk = predictedSpecies == currentInputData.irisSpecies;
-                    if (predictedOk) {
-                        numberOfPredictedOk++;
-                    }
+        var loss = meanSquaredErrorLoss.call(tensorFlowApi, trainingOutputPlaceholder,
+                tfGraph.operation(OP_NAME_OUTPUT_ACTIVATION).output(0));
 
-                    logger.info(" * Training epoch [{}], data index [{}]", currentTrainingEpoch, inputDataIdx);
-                    logger.info("Training input: [{}]", currentInputData);
-                    logger.info(
-                            "Prediction: , predicted species [{}], chanceIrisSetosa [{}], chanceIrisVersicolour [{}], chanceIrisVirginica [{}]",
-                            predictedSpecies, chanceIrisSetosa, chanceIrisVersicolour, chanceIrisVirginica);
-                    logger.info("Predicted ok? [{}]", predictedOk);
-                }
+        return new TrainingOps(trainingOutputPlaceholder, loss, optimizer.minimize(loss));
+    }
+
+    /**
+     * One optimizer step on a batch.
+     *
+     * @return the output activation of the batch, before the step, then the loss
+     */
+    static Result runTrainingStep(Session tfSession, TrainingOps trainingOps, TrainingBatch batch) {
+        return tfSession.runner().addTarget(trainingOps.minimize)
+                .feed(OP_NAME_INPUT_LAYER_PLACEHOLDER, batch.inputData)
+                .feed(trainingOps.expectedOutput, batch.expectedOutput).fetch(OP_NAME_OUTPUT_ACTIVATION)
+                .fetch(trainingOps.loss).run();
+    }
+
+    /**
+     * Preallocated [size, 4] input and [size, 3] expected output tensors of one
+     * mini-batch, the samples are copied straight into their native memory.
+     */
+    static final class TrainingBatch implements AutoCloseable {
+
+        private final int size;
+        private final TFloat32 inputData;
+        private final TFloat32 expectedOutput;
+        private final FloatDataBuffer inputBuffer;
+        private final FloatDataBuffer expectedOutputBuffer;
+
+        TrainingBatch(int size) {
+            this.size = size;
+            this.inputData = TFloat32.tensorOf(Shape.of(size, INPUT_LAYER_WIDTH));
+            this.expectedOutput = TFloat32.tensorOf(Shape.of(size, OUTPUT_LAYER_WIDTH));
+            this.inputBuffer = inputData.asRawTensor().data().asFloats();
+            this.expectedOutputBuffer = expectedOutput.asRawTensor().data().asFloats();
+        }
+
+        void fill(IrisDataSet trainData, int[] sampleOrder, int batchStart) {
+            for (int row = 0; row < size; row++) {
+                trainData.copySample(sampleOrder[batchStart + row], inputBuffer, expectedOutputBuffer, row);
             }
-            logger.info(" *** For training epoch [{}] predicted as expected for [{}]/[{}]", currentTrainingEpoch,
-                    numberOfPredictedOk, trainData.size());
+        }
+
+        @Override
+        public void close() {
+            inputData.close();
+            expectedOutput.close();
+        }
+    }
+
+    private static int predictedOutputIdx(TFloat32 outputTensor, int row) {
+        var bestIdx = 0;
+        for (int idx = 1; idx < OUTPUT_LAYER_WIDTH; idx++) {
+            if (outputTensor.getFloat(row, idx) > outputTensor.getFloat(row, bestIdx)) {
+                bestIdx = idx;
+            }
+        }
+        return bestIdx;
+    }
+
+    static void shuffle(int[] sampleOrder, Random random) {
+        for (int idx = sampleOrder.length - 1; idx > 0; idx--) {
+            var swapIdx = random.nextInt(idx + 1);
+            var swapValue = sampleOrder[swapIdx];
+            sampleOrder[swapIdx] = sampleOrder[idx];
+            sampleOrder[idx] = swapValue;
         }
     }
 
     public void buildNetwork(Ops tensorFlowApi) {
+        buildNetwork(tensorFlowApi, hyperparameters());
+    }
+
+    public void buildNetwork(Ops tensorFlowApi, IrisHyperparameters hyperparameters) {
+        var hiddenLayer1Width = hyperparameters.hiddenLayer1Width();
+        var hiddenLayer2Width = hyperparameters.hiddenLayer2Width();
         var initializer = new Glorot<TFloat32>(Distribution.NORMAL, RANDOM_SEED);
 
         // input layer
@@ -218,46 +873,95 @@ public class IrisTrainer {
 
         // hidden layer 1
         var hiddenLayer1Weights = tensorFlowApi.withName(OP_NAME_HIDDEN_LAYER1_WEIGHTS).variable(initializer
-                .call(tensorFlowApi, tensorFlowApi.array(INPUT_LAYER_WIDTH, HIDDEN_LAYER_1_WIDTH), TFloat32.class));
+                .call(tensorFlowApi, tensorFlowApi.array(INPUT_LAYER_WIDTH, hiddenLayer1Width), TFloat32.class));
         var hiddenLayer1Biases = tensorFlowApi.withName(OP_NAME_HIDDEN_LAYER1_BIASES)
-                .variable(tensorFlowApi.fill(tensorFlowApi.array(HIDDEN_LAYER_1_WIDTH), tensorFlowApi.constant(0.1f)));
-        var hiddenLayer1Activation = tensorFlowApi.nn.relu(tensorFlowApi.math
-                .add(tensorFlowApi.linalg.matMul(inputLayerPlaceholder, hiddenLayer1Weights), hiddenLayer1Biases));
+                .variable(tensorFlowApi.fill(tensorFlowApi.array(hiddenLayer1Width), tensorFlowApi.constant(0.1f)));
 
         // hidden layer 2
         var hiddenLayer2Weights = tensorFlowApi.withName(OP_NAME_HIDDEN_LAYER2_WEIGHTS).variable(initializer
-                .call(tensorFlowApi, tensorFlowApi.array(HIDDEN_LAYER_1_WIDTH, HIDDEN_LAYER_2_WIDTH), TFloat32.class));
+                .call(tensorFlowApi, tensorFlowApi.array(hiddenLayer1Width, hiddenLayer2Width), TFloat32.class));
         var hiddenLayer2Biases = tensorFlowApi.withName(OP_NAME_HIDDEN_LAYER2_BIASES)
-                .variable(tensorFlowApi.fill(tensorFlowApi.array(HIDDEN_LAYER_2_WIDTH), tensorFlowApi.constant(0.1f)));
-        var hiddenLayer2Activation = tensorFlowApi.nn.relu(tensorFlowApi.math
-                .add(tensorFlowApi.linalg.matMul(hiddenLayer1Activation, hiddenLayer2Weights), hiddenLayer2Biases));
+                .variable(tensorFlowApi.fill(tensorFlowApi.array(hiddenLayer2Width), tensorFlowApi.constant(0.1f)));
 
         // output layer
         var outputLayerWeights = tensorFlowApi.withName(OP_NAME_OUTPUT_LAYER_WEIGHTS).variable(initializer
-                .call(tensorFlowApi, tensorFlowApi.array(HIDDEN_LAYER_2_WIDTH, OUTPUT_LAYER_WIDTH), TFloat32.class));
+                .call(tensorFlowApi, tensorFlowApi.array(hiddenLayer2Width, OUTPUT_LAYER_WIDTH), TFloat32.class));
         var outputLayerBiases = tensorFlowApi.withName(OP_NAME_OUTPUT_LAYER_BIASES)
                 .variable(tensorFlowApi.fill(tensorFlowApi.array(OUTPUT_LAYER_WIDTH), tensorFlowApi.constant(0.1f)));
-        tensorFlowApi.withName(OP_NAME_OUTPUT_ACTIVATION).nn.softmax(tensorFlowApi.math
-                .add(tensorFlowApi.linalg.matMul(hiddenLayer2Activation, outputLayerWeights), outputLayerBiases));
-    }
-
-    private List<IrisDataLine> readTrainData() throws IOException {
-        var trainData = new ArrayList<IrisDataLine>(INPUT_DATA_LINES);
-        BufferedReader dataReader = new BufferedReader(
-                new InputStreamReader(inputData.getInputStream(), StandardCharsets.UTF_8));
-        while (dataReader.ready()) {
-            var rawDataLine = dataReader.readLine();
-            if (rawDataLine.isBlank()) {
-                continue;
+
+        buildLayers(tensorFlowApi, inputLayerPlaceholder, List.of(hiddenLayer1Weights, hiddenLayer1Biases,
+                hiddenLayer2Weights, hiddenLayer2Biases, outputLayerWeights, outputLayerBiases));
+    }
+
+    /**
+     * Builds the inference only network in an empty graph: the input
+     * placeholder, the trained weights as constants named as the variables, so
+     * a warm start reads them the same way, and the layers.
+     *
+     * @param weights a {@link #snapshotNetwork} result
+     */
+    private static void buildFrozenNetwork(Ops tensorFlowApi, Result weights, WeightPrecision precision) {
+        var inputLayerPlaceholder = tensorFlowApi.withName(OP_NAME_INPUT_LAYER_PLACEHOLDER).placeholder(TFloat32.class,
+                Placeholder.shape(Shape.of(-1, INPUT_LAYER_WIDTH)));
+        var network = new ArrayList<Operand<TFloat32>>(NETWORK_VARIABLES.size());
+        for (int idx = 0; idx < NETWORK_VARIABLES.size(); idx++) {
+            network.add(frozenWeight(tensorFlowApi, NETWORK_VARIABLES.get(idx), (TFloat32) weights.get(idx),
+                    precision));
+        }
+        buildLayers(tensorFlowApi, inputLayerPlaceholder, network);
+    }
+
+    /**
+     * @return the float32 value of a weight stored in the given precision
+     */
+    private static Operand<TFloat32> frozenWeight(Ops tensorFlowApi, String name, TFloat32 weight,
+            WeightPrecision precision) {
+        var values = new float[(int) weight.size()];
+        weight.copyTo(DataBuffers.of(values, false, false));
+        switch (precision) {
+        case FLOAT16:
+            // the constant copies the tensor into the graph
+            try (var halfWeight = TFloat16.tensorOf(weight.shape(), DataBuffers.of(values, true, false))) {
+                return tensorFlowApi.withName(name).dtypes
+                        .cast(tensorFlowApi.withName(name + "Float16").constantOf(halfWeight), TFloat32.class);
+            }
+        case INT8:
+            var maxAbsValue = 0f;
+            for (var value : values) {
+                maxAbsValue = Math.max(maxAbsValue, Math.abs(value));
             }
-            var splitDataLine = rawDataLine.split(CSV_SEPARATOR_REGEX);
-            trainData.add(new IrisDataLine(Float.valueOf(splitDataLine[CSV_SEPAL_LENGTH_IDX]).floatValue(),
-                    Float.valueOf(splitDataLine[CSV_SEPAL_WIDTH_IDX]).floatValue(),
-                    Float.valueOf(splitDataLine[CSV_PETAL_LENGTH_IDX]).floatValue(),
-                    Float.valueOf(splitDataLine[CSV_PETAL_WIDTH_IDX]).floatValue(),
-                    IrisSpecies.getIrisSpecies(splitDataLine[CSV_SPECIES_NAME_IDX])));
+            var scale = maxAbsValue == 0 ? 1f : maxAbsValue / WeightPrecision.INT8_MAX;
+            var quantized = new byte[values.length];
+            for (int idx = 0; idx < values.length; idx++) {
+                quantized[idx] = (byte) (Math.round(values[idx] / scale) + WeightPrecision.INT8_ZERO_POINT);
+            }
+            var quantizedWeight = tensorFlowApi.withName(name + "Int8").constant(weight.shape(),
+                    DataBuffers.of(quantized, true, false));
+            return tensorFlowApi.withName(name).math.mul(tensorFlowApi.math.sub(
+                    tensorFlowApi.dtypes.cast(quantizedWeight, TFloat32.class),
+                    tensorFlowApi.constant((float) WeightPrecision.INT8_ZERO_POINT)), tensorFlowApi.constant(scale));
+        default:
+            return tensorFlowApi.withName(name).constant(weight.shape(), DataBuffers.of(values, true, false));
         }
+    }
+
+    /**
+     * Builds the layers on top of the weights, variables while training and
+     * constants once frozen.
+     *
+     * @param network the weights, in {@link #NETWORK_VARIABLES} order
+     */
+    private static void buildLayers(Ops tensorFlowApi, Operand<TFloat32> inputLayer,
+            List<Operand<TFloat32>> network) {
+        var hiddenLayer1Activation = tensorFlowApi.nn.relu(tensorFlowApi.math
+                .add(tensorFlowApi.linalg.matMul(inputLayer, network.get(0)), network.get(1)));
+        var hiddenLayer2Activation = tensorFlowApi.nn.relu(tensorFlowApi.math
+                .add(tensorFlowApi.linalg.matMul(hiddenLayer1Activation, network.get(2)), network.get(3)));
+        var outputActivation = tensorFlowApi.withName(OP_NAME_OUTPUT_ACTIVATION).nn.softmax(tensorFlowApi.math
+                .add(tensorFlowApi.linalg.matMul(hiddenLayer2Activation, network.get(4)), network.get(5)));
 
-        return trainData;
+        // the predicted species index, the classifier reads one int per sample
+        tensorFlowApi.withName(OP_NAME_OUTPUT_CLASS).math.argMax(outputActivation, tensorFlowApi.constant(1),
+                TInt32.class);
     }
 }
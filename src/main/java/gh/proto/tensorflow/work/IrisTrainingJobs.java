@@ -0,0 +1,274 @@
+package gh.proto.tensorflow.work;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.IrisHyperparameterSweep.SearchSpace;
+import gh.proto.tensorflow.work.IrisHyperparameterSweep.SweepRun;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs {@link IrisTrainer} trainings and {@link IrisHyperparameterSweep} sweeps
+ * in the background, one job at a time, so training never delays the
+ * application startup.
+ */
+@Component
+public class IrisTrainingJobs {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    public enum JobState {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    };
+
+    /**
+     * The epoch fields are set for a training, the sweep ones for a
+     * hyperparameter sweep.
+     *
+     * @param sweepRuns best first once the sweep succeeded
+     */
+    public record JobStatus(String id, JobState state, int epochsDone, int epochs, int lastEpochPredictedOk,
+            int samples, double lastEpochMeanLoss, int sweepRunsDone, int sweepRunCount, SweepRun bestSweepRun,
+            List<SweepRun> sweepRuns, Instant submittedAt, Instant startedAt, Instant finishedAt, String error) {
+    };
+
+    private static final class TrainingJob implements TrainingMonitor {
+
+        private final String id = UUID.randomUUID().toString();
+        private final Instant submittedAt = Instant.now();
+        private volatile JobState state = JobState.QUEUED;
+        private volatile int epochsDone;
+        private volatile int epochs;
+        private volatile int lastEpochPredictedOk;
+        private volatile int samples;
+        private volatile double lastEpochMeanLoss;
+        private volatile int sweepRunsDone;
+        private volatile int sweepRunCount;
+        private volatile SweepRun bestSweepRun;
+        private volatile List<SweepRun> sweepRuns;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile String error;
+        private volatile boolean cancelled;
+        private Future<?> future;
+
+        @Override
+        public void epochDone(int epoch, int epochs, int predictedOk, int samples, double meanLoss) {
+            this.epochsDone = epoch + 1;
+            this.epochs = epochs;
+            this.lastEpochPredictedOk = predictedOk;
+            this.samples = samples;
+            this.lastEpochMeanLoss = meanLoss;
+        }
+
+        @Override
+        public synchronized void sweepRunDone(int runsDone, int runs, SweepRun best) {
+            // runs end concurrently, out of order
+            if (runsDone > this.sweepRunsDone) {
+                this.sweepRunsDone = runsDone;
+                this.sweepRunCount = runs;
+                this.bestSweepRun = best;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private JobStatus status() {
+            return new JobStatus(id, state, epochsDone, epochs, lastEpochPredictedOk, samples, lastEpochMeanLoss,
+                    sweepRunsDone, sweepRunCount, bestSweepRun, sweepRuns, submittedAt, startedAt, finishedAt, error);
+        }
+    }
+
+    @Autowired
+    private IrisTrainer irisTrainer;
+
+    @Autowired
+    private IrisHyperparameterSweep irisHyperparameterSweep;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * train at startup when the exported model is missing or out of date
+     */
+    @Value("${tensorflow.iris.training.on-startup:true}")
+    private boolean trainOnStartup;
+
+    /**
+     * finished jobs kept for status queries
+     */
+    @Value("${tensorflow.iris.training.job-history:20}")
+    private int jobHistory;
+
+    private final Map<String, TrainingJob> jobs = new LinkedHashMap<>();
+
+    private ExecutorService trainingExecutor;
+
+    @PostConstruct
+    public void init() {
+        trainingExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "iris-training");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void clean() {
+        synchronized (jobs) {
+            jobs.values().forEach(job -> job.cancelled = true);
+        }
+        trainingExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void trainIfOutdated() {
+        if (!trainOnStartup) {
+            return;
+        }
+        if (irisTrainer.isExportUpToDate()) {
+            logger.info("Exported iris model is up to date, skipping startup training");
+            return;
+        }
+        logger.info("Exported iris model is missing or out of date, submitted training job [{}]", submit().id());
+    }
+
+    public JobStatus submit() {
+        return submit(new TrainingJob(), "training", irisTrainer::doTrain);
+    }
+
+    /**
+     * @param warmStart start from the latest exported model weights, unless the
+     *                  training resumes from a checkpoint
+     */
+    public JobStatus submit(boolean warmStart) {
+        return submit(new TrainingJob(), "training", job -> irisTrainer.doTrain(job, warmStart));
+    }
+
+    /**
+     * Queues a hyperparameter sweep, it runs like a training job and exports its
+     * best run.
+     *
+     * @throws ProtoWorkException when the search space is invalid or too big
+     */
+    public JobStatus submitSweep(SearchSpace space) {
+        var sweepJob = new TrainingJob();
+        sweepJob.sweepRunCount = irisHyperparameterSweep.configurations(space).size();
+        return submit(sweepJob, "sweep", job -> {
+            var result = irisHyperparameterSweep.sweep(space, job);
+            job.sweepRuns = result.runs();
+            return result.versionPath();
+        });
+    }
+
+    private JobStatus submit(TrainingJob job, String kind, Function<TrainingJob, Path> work) {
+        synchronized (jobs) {
+            forgetFinishedJobs();
+            jobs.put(job.id, job);
+            job.future = trainingExecutor.submit(() -> run(job, kind, work));
+        }
+        return job.status();
+    }
+
+    public Optional<JobStatus> status(String id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id)).map(TrainingJob::status);
+        }
+    }
+
+    public List<JobStatus> statuses() {
+        synchronized (jobs) {
+            return jobs.values().stream().map(TrainingJob::status).toList();
+        }
+    }
+
+    /**
+     * A queued job never starts, a running one stops before its next optimizer
+     * step and exports nothing. A cancelled training resumes from its latest
+     * checkpoint, when checkpointing, on the next training.
+     */
+    public Optional<JobStatus> cancel(String id) {
+        synchronized (jobs) {
+            var job = jobs.get(id);
+            if (job == null) {
+                return Optional.empty();
+            }
+            job.cancelled = true;
+            if (job.state == JobState.QUEUED && job.future.cancel(false)) {
+                job.state = JobState.CANCELLED;
+                job.finishedAt = Instant.now();
+            }
+            return Optional.of(job.status());
+        }
+    }
+
+    private void run(TrainingJob job, String kind, Function<TrainingJob, Path> work) {
+        if (job.cancelled) {
+            job.state = JobState.CANCELLED;
+            job.finishedAt = Instant.now();
+            return;
+        }
+        job.startedAt = Instant.now();
+        job.state = JobState.RUNNING;
+        logger.info("Iris {} job [{}] started", kind, job.id);
+        try {
+            var versionPath = work.apply(job);
+            job.state = JobState.SUCCEEDED;
+            logger.info("Iris {} job [{}] succeeded, exported [{}]", kind, job.id, versionPath);
+            publishExported(job, kind, versionPath);
+        } catch (CancellationException e) {
+            job.state = JobState.CANCELLED;
+            logger.info("Iris {} job [{}] cancelled", kind, job.id);
+        } catch (RuntimeException e) {
+            job.error = e.getMessage();
+            job.state = JobState.FAILED;
+            logger.error("Iris {} job [{}] failed", kind, job.id, e);
+        } finally {
+            job.finishedAt = Instant.now();
+        }
+    }
+
+    /**
+     * The export is done whatever the listeners do, a failed reload leaves the
+     * job succeeded and the previous model serving.
+     */
+    private void publishExported(TrainingJob job, String kind, Path versionPath) {
+        try {
+            eventPublisher.publishEvent(new IrisModelExported(versionPath));
+        } catch (RuntimeException e) {
+            logger.error("Iris {} job [{}] exported [{}] but the model reload failed", kind, job.id, versionPath, e);
+        }
+    }
+
+    private void forgetFinishedJobs() {
+        // insertion ordered, the oldest finished jobs come first
+        var finishedJobs = jobs.values().stream().filter(job -> job.finishedAt != null).toList();
+        for (int idx = 0; idx < finishedJobs.size() - jobHistory; idx++) {
+            jobs.remove(finishedJobs.get(idx).id);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package gh.proto.tensorflow.work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.proto.ConfigProto;
+import org.tensorflow.proto.GPUOptions;
+import org.tensorflow.proto.GraphOptions;
+import org.tensorflow.proto.OptimizerOptions;
+import org.tensorflow.proto.RewriterConfig;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Session options of each model: its thread pools, JIT compilation, graph
+ * optimizations and GPU memory, read from tensorflow.execution.models.[model].*
+ * falling back to tensorflow.execution.defaults.*.
+ * <p>
+ * A model with its threads set gets its own pools, sized as configured, instead
+ * of the process wide pools TensorFlow sizes to all the cores and shares
+ * between the models. With tensorflow.execution.auto-tune.enabled, every model
+ * loaded with a synthetic call first runs it for a short while under its
+ * configured profile and a few thread splits that fit the cores, and keeps the
+ * configured profile unless a split beats its throughput.
+ */
+@Component
+public class ModelExecutionProfiles {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private static final String PROPERTY_PREFIX = "tensorflow.execution.";
+
+    /**
+     * @param intraOpThreads     threads running the inside of an op, 0 for the
+     *                           TensorFlow default
+     * @param interOpThreads     threads running independent ops at once, 0 for
+     *                           the TensorFlow default
+     * @param xlaJit             compiles clusters of ops with XLA
+     * @param graphOptimizations the graph rewrites before the first run: constant
+     *                           folding, common subexpressions, layout and the
+     *                           other grappler passes
+     * @param gpuMemoryFraction  of the memory of each GPU the process may use, 0
+     *                           for all of it
+     * @param gpuAllowGrowth     allocates the GPU memory as needed instead of
+     *                           upfront
+     */
+    public record ExecutionProfile(int intraOpThreads, int interOpThreads, boolean xlaJit,
+            boolean graphOptimizations, double gpuMemoryFraction, boolean gpuAllowGrowth) {
+
+        public ExecutionProfile {
+            if (intraOpThreads < 0 || interOpThreads < 0) {
+                throw new ProtoWorkException("Op threads can't be negative, got intra-op " + intraOpThreads
+                        + " and inter-op " + interOpThreads);
+            }
+            if (!(gpuMemoryFraction >= 0 && gpuMemoryFraction <= 1)) {
+                throw new ProtoWorkException("gpu-memory-fraction must be in [0, 1], got " + gpuMemoryFraction);
+            }
+        }
+
+        ExecutionProfile withThreads(int intraOpThreads, int interOpThreads) {
+            return new ExecutionProfile(intraOpThreads, interOpThreads, xlaJit, graphOptimizations,
+                    gpuMemoryFraction, gpuAllowGrowth);
+        }
+
+        public ConfigProto configProto() {
+            var optimizerOptions = OptimizerOptions.newBuilder()
+                    .setOptLevel(graphOptimizations ? OptimizerOptions.Level.L1 : OptimizerOptions.Level.L0)
+                    .setGlobalJitLevel(xlaJit ? OptimizerOptions.GlobalJitLevel.ON_1
+                            : OptimizerOptions.GlobalJitLevel.OFF);
+            var graphOptions = GraphOptions.newBuilder().setOptimizerOptions(optimizerOptions)
+                    .setRewriteOptions(RewriterConfig.newBuilder().setDisableMetaOptimizer(!graphOptimizations));
+            var configProto = ConfigProto.newBuilder().setGraphOptions(graphOptions)
+                    .setGpuOptions(GPUOptions.newBuilder().setPerProcessGpuMemoryFraction(gpuMemoryFraction)
+                            .setAllowGrowth(gpuAllowGrowth));
+            if (intraOpThreads > 0 || interOpThreads > 0) {
+                // the process wide pools are sized by the first session and
+                // would ignore the threads of the other models
+                configProto.setUsePerSessionThreads(true).setIntraOpParallelismThreads(intraOpThreads)
+                        .setInterOpParallelismThreads(interOpThreads);
+            }
+            return configProto.build();
+        }
+    };
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private InferenceExecutor inferenceExecutor;
+
+    @Value("${tensorflow.execution.auto-tune.enabled:false}")
+    private boolean autoTune;
+
+    /**
+     * how long the synthetic call runs per thread split
+     */
+    @Value("${tensorflow.execution.auto-tune.trial-millis:1000}")
+    private long trialMillis;
+
+    // picked by the auto-tune, reused when the model is reloaded
+    private final Map<String, ExecutionProfile> tunedProfiles = new ConcurrentHashMap<>();
+
+    /**
+     * @return the auto-tuned profile of the model, else its configured one
+     */
+    public ExecutionProfile profile(String model) {
+        var tunedProfile = tunedProfiles.get(model);
+        if (tunedProfile != null) {
+            return tunedProfile;
+        }
+        return new ExecutionProfile(setting(model, "intra-op-threads", Integer.class, 0),
+                setting(model, "inter-op-threads", Integer.class, 0),
+                setting(model, "xla-jit", Boolean.class, false),
+                setting(model, "graph-optimizations", Boolean.class, true),
+                setting(model, "gpu-memory-fraction", Double.class, 0d),
+                setting(model, "gpu-allow-growth", Boolean.class, false));
+    }
+
+    /**
+     * @return the session options of the model, also for the sessions of its
+     *         pre and post processing graphs
+     */
+    public ConfigProto configProto(String model) {
+        return profile(model).configProto();
+    }
+
+    /**
+     * Loads a saved model with the session options of the model.
+     */
+    public SavedModelBundle load(String model, String path) {
+        return SavedModelBundle.loader(path).withTags(SavedModelBundle.DEFAULT_TAG)
+                .withConfigProto(configProto(model)).load();
+    }
+
+    /**
+     * Loads a saved model with the session options of the model, auto-tuning
+     * its threads first when enabled and not done yet.
+     *
+     * @param syntheticCall runs the model once on made up inputs and closes what
+     *                      it allocated, called from several threads at once
+     */
+    public SavedModelBundle load(String model, String path, Consumer<SavedModelBundle> syntheticCall) {
+        if (autoTune && !tunedProfiles.containsKey(model)) {
+            tunedProfiles.put(model, autoTune(model, path, syntheticCall));
+        }
+        return load(model, path);
+    }
+
+    private ExecutionProfile autoTune(String model, String path, Consumer<SavedModelBundle> syntheticCall) {
+        var configured = profile(model);
+        var concurrency = inferenceExecutor.maxConcurrency(model);
+        ExecutionProfile best = null;
+        var bestCallsPerSecond = 0d;
+        for (var candidate : threadSplits(configured, concurrency)) {
+            double callsPerSecond;
+            try (var bundle = SavedModelBundle.loader(path).withTags(SavedModelBundle.DEFAULT_TAG)
+                    .withConfigProto(candidate.configProto()).load()) {
+                callsPerSecond = trial(bundle, syntheticCall, concurrency);
+            }
+            logger.info("Auto-tune of [{}]: intra-op [{}], inter-op [{}], [{}] concurrent callers: [{}] calls/s",
+                    model, candidate.intraOpThreads(), candidate.interOpThreads(), concurrency,
+                    String.format(Locale.ROOT, "%.1f", callsPerSecond));
+            // the configured profile is tried first and kept on ties
+            if (best == null || callsPerSecond > bestCallsPerSecond) {
+                best = candidate;
+                bestCallsPerSecond = callsPerSecond;
+            }
+        }
+        logger.info("Auto-tune of [{}] picked intra-op [{}], inter-op [{}]", model, best.intraOpThreads(),
+                best.interOpThreads());
+        return best;
+    }
+
+    /**
+     * @return the configured profile, its 0 threads meaning the shared default
+     *         pools, then splits of the cores between the concurrent calls of the
+     *         lane and the ops of a call, the fewest threads first
+     */
+    private List<ExecutionProfile> threadSplits(ExecutionProfile configured, int concurrency) {
+        var cores = Runtime.getRuntime().availableProcessors();
+        var intraOpThreads = new TreeSet<Integer>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            intraOpThreads.add(threads);
+        }
+        intraOpThreads.add(cores);
+        intraOpThreads.add(Math.max(1, cores / concurrency));
+        var splits = new ArrayList<ExecutionProfile>();
+        splits.add(configured);
+        for (var intra : intraOpThreads) {
+            for (var inter : List.of(1, 2)) {
+                var split = configured.withThreads(intra, inter);
+                if (!split.equals(configured)) {
+                    splits.add(split);
+                }
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * @return the synthetic calls per second of concurrent callers, after one
+     *         warm up call paying for the lazy initializations
+     */
+    private double trial(SavedModelBundle bundle, Consumer<SavedModelBundle> syntheticCall, int concurrency) {
+        syntheticCall.accept(bundle);
+        var calls = new AtomicLong();
+        var failure = new AtomicReference<RuntimeException>();
+        var done = new CountDownLatch(concurrency);
+        var start = System.nanoTime();
+        var end = start + TimeUnit.MILLISECONDS.toNanos(trialMillis);
+        for (int idx = 0; idx < concurrency; idx++) {
+            var caller = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end && failure.get() == null) {
+                        syntheticCall.accept(bundle);
+                        calls.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }, "auto-tune-" + idx);
+            caller.setDaemon(true);
+            caller.start();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProtoWorkException("Auto-tune interrupted", e);
+        }
+        if (failure.get() != null) {
+            throw new ProtoWorkException("Auto-tune synthetic call failed", failure.get());
+        }
+        return calls.get() * 1e9 / (System.nanoTime() - start);
+    }
+
+    private <T> T setting(String model, String name, Class<T> type, T defaultValue) {
+        var modelDefault = environment.getProperty(PROPERTY_PREFIX + "defaults." + name, type, defaultValue);
+        return environment.getProperty(PROPERTY_PREFIX + "models." + model + "." + name, type, modelDefault);
+    }
+}
@@ -0,0 +1,18 @@
+package gh.proto.tensorflow.work;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * A {@link ModelRegistry} call the caller got wrong: an unknown model or
+ * signature, inputs that don't match the signature.
+ */
+public class ModelInputException extends ProtoWorkException {
+
+    public ModelInputException(String message) {
+        super(message);
+    }
+
+    public ModelInputException(String message, Throwable e) {
+        super(message, e);
+    }
+}
@@ -0,0 +1,583 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.tensorflow.Result;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Signature;
+import org.tensorflow.Tensor;
+import org.tensorflow.exceptions.TFInvalidArgumentException;
+import org.tensorflow.ndarray.NdArray;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.proto.DataType;
+import org.tensorflow.types.TBool;
+import org.tensorflow.types.TFloat32;
+import org.tensorflow.types.TFloat64;
+import org.tensorflow.types.TInt32;
+import org.tensorflow.types.TInt64;
+import org.tensorflow.types.TString;
+import org.tensorflow.types.TUint8;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * The SavedModels listed under tensorflow.registry.models, called thru any of
+ * their signatures with tensors given as shape and flat values. A call the
+ * caller got wrong throws a {@link ModelInputException}.
+ * <p>
+ * Nothing is loaded at startup: a model is loaded on its first call, with its
+ * execution profile, from the latest version under its path. The loaded models
+ * stay under tensorflow.registry.memory-budget: loading one that doesn't fit
+ * first closes the least recently used idle models, a model with calls running
+ * is never picked. Models idle for tensorflow.registry.idle-millis are closed
+ * too. A closed model is loaded again by its next call.
+ * <p>
+ * The native memory of a model is estimated from the size of its SavedModel
+ * files, the weights being resident once loaded; models whose runtime memory
+ * differs a lot, big activations or XLA clusters, set it with
+ * tensorflow.registry.models.[model].memory.
+ * <p>
+ * Meters: tensorflow.registry.loaded and tensorflow.registry.resident (the
+ * estimated bytes of the loaded models), tensorflow.registry.loads and
+ * tensorflow.registry.evictions tagged with the model, the evictions also with
+ * the reason (budget, idle); the calls are metered as the other models.
+ */
+@Component
+public class ModelRegistry {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private static final String MODELS_PROPERTY = "tensorflow.registry.models";
+
+    private static final long MIN_IDLE_CHECK_MILLIS = 1000;
+
+    /**
+     * @param path   the SavedModel directory, or its versions directory
+     * @param memory native memory of the loaded model, estimated from the files
+     *               when not set
+     */
+    public record ModelConfig(String path, DataSize memory) {
+    };
+
+    /**
+     * A tensor of a call: its shape and its values in row major order. The type
+     * of the inputs is the one of the signature, dtype can be left out.
+     */
+    public record TensorValue(String dtype, long[] shape, List<Object> values) {
+    };
+
+    public record TensorSpec(String dtype, long[] shape) {
+    };
+
+    public record SignatureSpec(String key, String methodName, Map<String, TensorSpec> inputs,
+            Map<String, TensorSpec> outputs) {
+    };
+
+    /**
+     * @param version       of the loaded model, null when not loaded
+     * @param residentBytes estimated native memory of the loaded model
+     * @param idleMillis    since the last call, null when never called
+     */
+    public record ModelStatus(String name, String path, boolean loaded, String version, long residentBytes,
+            int inFlight, Long idleMillis) {
+    };
+
+    private final class RegisteredModel {
+
+        private final String name;
+        private final ModelConfig config;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter loads;
+        private final ModelMetrics metrics;
+        // both written under the registry lock
+        private volatile SavedModelHolder holder;
+        private long residentBytes;
+        private volatile long lastUsedNanos;
+        private volatile boolean used;
+
+        private RegisteredModel(String name, ModelConfig config) {
+            this.name = name;
+            this.config = config;
+            loads = Counter.builder("tensorflow.registry.loads").tag("model", name).register(meterRegistry);
+            metrics = inferenceMetrics.model(name);
+        }
+    }
+
+    /**
+     * A lease on the loaded model counted as a call running, so the model is not
+     * picked for eviction until closed.
+     */
+    private static final class ModelCall implements AutoCloseable {
+
+        private final RegisteredModel model;
+        private final SavedModelHolder.Lease lease;
+
+        private ModelCall(RegisteredModel model, SavedModelHolder.Lease lease) {
+            this.model = model;
+            this.lease = lease;
+        }
+
+        @Override
+        public void close() {
+            lease.close();
+            model.inFlight.decrementAndGet();
+        }
+    }
+
+    @Value("${tensorflow.registry.memory-budget:1GB}")
+    private DataSize memoryBudget;
+
+    /**
+     * 0 keeps the idle models until the budget needs their memory
+     */
+    @Value("${tensorflow.registry.idle-millis:600000}")
+    private long idleMillis;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    @Autowired
+    private ModelExecutionProfiles executionProfiles;
+
+    private Map<String, RegisteredModel> models;
+
+    private long residentBytes;
+
+    private boolean closed;
+
+    private ScheduledExecutorService idleEvictions;
+
+    @PostConstruct
+    public void init() {
+        var configs = Binder.get(environment)
+                .bind(MODELS_PROPERTY, Bindable.mapOf(String.class, ModelConfig.class)).orElse(Map.of());
+        var registeredModels = new TreeMap<String, RegisteredModel>();
+        configs.forEach((name, config) -> {
+            if (config.path() == null) {
+                throw new ProtoWorkException("Model " + name + " of the registry has no path");
+            }
+            registeredModels.put(name, new RegisteredModel(name, config));
+        });
+        models = registeredModels;
+
+        Gauge.builder("tensorflow.registry.loaded", this, ModelRegistry::loadedCount).register(meterRegistry);
+        Gauge.builder("tensorflow.registry.resident", this, ModelRegistry::residentBytes).baseUnit("bytes")
+                .register(meterRegistry);
+
+        if (idleMillis > 0) {
+            idleEvictions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "model-registry-idle-evictions");
+                thread.setDaemon(true);
+                return thread;
+            });
+            var checkMillis = Math.max(MIN_IDLE_CHECK_MILLIS, idleMillis / 2);
+            idleEvictions.scheduleWithFixedDelay(this::evictIdle, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Model registry: [{}], memory budget [{}], idle eviction after [{}]ms", models.keySet(),
+                memoryBudget, idleMillis);
+    }
+
+    /**
+     * Closes the loaded models, the calls running finish first.
+     */
+    @PreDestroy
+    public synchronized void clean() {
+        closed = true;
+        if (idleEvictions != null) {
+            idleEvictions.shutdownNow();
+        }
+        for (var model : models.values()) {
+            if (model.holder != null) {
+                model.holder.close();
+                model.holder = null;
+                residentBytes -= model.residentBytes;
+            }
+        }
+    }
+
+    public boolean contains(String name) {
+        return models.containsKey(name);
+    }
+
+    public List<ModelStatus> statuses() {
+        var now = System.nanoTime();
+        var statuses = new ArrayList<ModelStatus>(models.size());
+        synchronized (this) {
+            for (var model : models.values()) {
+                var holder = model.holder;
+                statuses.add(new ModelStatus(model.name, model.config.path(), holder != null,
+                        holder == null ? null : holder.version(), holder == null ? 0 : model.residentBytes,
+                        model.inFlight.get(),
+                        model.used ? TimeUnit.NANOSECONDS.toMillis(now - model.lastUsedNanos) : null));
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Loads the model when needed.
+     */
+    public List<SignatureSpec> signatures(String name) {
+        var model = registered(name);
+        try (var call = acquire(model)) {
+            var signatures = new ArrayList<SignatureSpec>();
+            for (var signature : call.lease.bundle().signatures()) {
+                signatures.add(new SignatureSpec(signature.key(), signature.methodName(),
+                        specs(signature.getInputs()), specs(signature.getOutputs())));
+            }
+            return signatures;
+        }
+    }
+
+    /**
+     * Runs a signature of the model, loading it when needed.
+     *
+     * @return the outputs of the signature
+     */
+    public Map<String, TensorValue> call(String name, String signatureKey, Map<String, TensorValue> inputs) {
+        var model = registered(name);
+        try (var call = acquire(model)) {
+            var bundle = call.lease.bundle();
+            var signature = signature(bundle, name, signatureKey);
+            var inputSpecs = signature.getInputs();
+            for (var inputName : inputs.keySet()) {
+                if (!inputSpecs.containsKey(inputName)) {
+                    throw new ModelInputException("Signature " + signatureKey + " of model " + name
+                            + " has no input " + inputName + ", its inputs are " + inputSpecs.keySet());
+                }
+            }
+
+            Map<String, Tensor> feeds = new HashMap<>();
+            try {
+                for (var input : inputSpecs.entrySet()) {
+                    var value = inputs.get(input.getKey());
+                    if (value == null) {
+                        throw new ModelInputException("Missing input " + input.getKey() + " of signature "
+                                + signatureKey + " of model " + name);
+                    }
+                    feeds.put(input.getKey(), model.metrics.allocated(tensor(input.getKey(), input.getValue(),
+                            value)));
+                }
+                return run(model, bundle, signatureKey, feeds);
+            } finally {
+                feeds.values().forEach(model.metrics::close);
+            }
+        }
+    }
+
+    private Map<String, TensorValue> run(RegisteredModel model, SavedModelBundle bundle, String signatureKey,
+            Map<String, Tensor> feeds) {
+        var inferTimer = model.metrics.stage("infer");
+        var inferStart = model.metrics.callStarted();
+        var failed = true;
+        Result result;
+        try {
+            result = model.metrics.allocated(bundle.function(signatureKey).call(feeds));
+            failed = false;
+        } catch (TFInvalidArgumentException e) {
+            throw new ModelInputException("Invalid inputs of signature " + signatureKey + " of model " + model.name
+                    + ": " + e.getMessage(), e);
+        } finally {
+            model.metrics.callDone(inferTimer, inferStart, failed);
+        }
+        try {
+            var outputs = new LinkedHashMap<String, TensorValue>();
+            for (var output : result) {
+                outputs.put(output.getKey(), value(output.getValue()));
+            }
+            return outputs;
+        } finally {
+            model.metrics.close(result);
+        }
+    }
+
+    private ModelCall acquire(RegisteredModel model) {
+        model.inFlight.incrementAndGet();
+        model.lastUsedNanos = System.nanoTime();
+        model.used = true;
+        try {
+            while (true) {
+                var holder = model.holder;
+                if (holder == null) {
+                    holder = load(model);
+                }
+                try {
+                    return new ModelCall(model, holder.acquire());
+                } catch (ProtoWorkException e) {
+                    // evicted between the read and the acquire, load it again
+                    if (model.holder == holder) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            model.inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private SavedModelHolder load(RegisteredModel model) {
+        synchronized (model) {
+            var holder = model.holder;
+            if (holder != null) {
+                return holder;
+            }
+            var versionPath = SavedModelVersions.latest(model.config.path())
+                    .orElseThrow(() -> new ProtoWorkException("No SavedModel found under " + model.config.path()));
+            var bytes = model.config.memory() != null ? model.config.memory().toBytes() : filesSize(versionPath);
+            reserve(model, bytes);
+
+            var loadStart = System.nanoTime();
+            SavedModelBundle bundle;
+            try {
+                bundle = executionProfiles.load(model.name, versionPath.toString());
+            } catch (RuntimeException e) {
+                release(bytes);
+                throw e;
+            }
+            holder = new SavedModelHolder(model.name, bundle, SavedModelVersions.versionName(versionPath));
+            synchronized (this) {
+                if (closed) {
+                    residentBytes -= bytes;
+                    holder.close();
+                    throw new InferenceRejectedException(Reason.STOPPED, "Model " + model.name + " is stopped");
+                }
+                model.residentBytes = bytes;
+                model.holder = holder;
+            }
+            model.loads.increment();
+            logger.info("Model [{}] version [{}] loaded in [{}]ms, [{}] bytes resident of [{}]", model.name,
+                    holder.version(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart), residentBytes(),
+                    memoryBudget.toBytes());
+            return holder;
+        }
+    }
+
+    /**
+     * Makes room for the model, closing the least recently used idle models.
+     */
+    private synchronized void reserve(RegisteredModel model, long bytes) {
+        if (closed) {
+            throw new InferenceRejectedException(Reason.STOPPED, "Model " + model.name + " is stopped");
+        }
+        if (bytes > memoryBudget.toBytes()) {
+            throw new ProtoWorkException("Model " + model.name + " needs " + bytes + " bytes, over the registry "
+                    + "memory budget of " + memoryBudget.toBytes());
+        }
+        while (residentBytes + bytes > memoryBudget.toBytes()) {
+            RegisteredModel leastRecentlyUsed = null;
+            for (var candidate : models.values()) {
+                if (candidate != model && candidate.holder != null && candidate.inFlight.get() == 0
+                        && (leastRecentlyUsed == null || candidate.lastUsedNanos < leastRecentlyUsed.lastUsedNanos)) {
+                    leastRecentlyUsed = candidate;
+                }
+            }
+            if (leastRecentlyUsed == null) {
+                throw new InferenceRejectedException(Reason.OVER_MEMORY_BUDGET, "Model " + model.name
+                        + " doesn't fit in the registry memory budget while the loaded models are busy");
+            }
+            evict(leastRecentlyUsed, "budget");
+        }
+        residentBytes += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        residentBytes -= bytes;
+    }
+
+    private synchronized void evictIdle() {
+        var now = System.nanoTime();
+        for (var model : models.values()) {
+            if (model.holder != null && model.inFlight.get() == 0
+                    && now - model.lastUsedNanos > TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+                evict(model, "idle");
+            }
+        }
+    }
+
+    // under the registry lock
+    private void evict(RegisteredModel model, String reason) {
+        var holder = model.holder;
+        model.holder = null;
+        residentBytes -= model.residentBytes;
+        // calls that took a lease meanwhile finish on it
+        holder.close();
+        Counter.builder("tensorflow.registry.evictions").tag("model", model.name).tag("reason", reason)
+                .register(meterRegistry).increment();
+        logger.info("Model [{}] closed, reason [{}], [{}] bytes resident", model.name, reason, residentBytes);
+    }
+
+    private synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    private synchronized int loadedCount() {
+        var loaded = 0;
+        for (var model : models.values()) {
+            if (model.holder != null) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    private RegisteredModel registered(String name) {
+        var model = models.get(name);
+        if (model == null) {
+            throw new ModelInputException("Unknown model " + name);
+        }
+        return model;
+    }
+
+    private static Signature signature(SavedModelBundle bundle, String name, String signatureKey) {
+        for (var signature : bundle.signatures()) {
+            if (signature.key().equals(signatureKey)) {
+                return signature;
+            }
+        }
+        throw new ModelInputException("Model " + name + " has no signature " + signatureKey + ", its signatures are "
+                + bundle.signatures().stream().map(Signature::key).toList());
+    }
+
+    private static Map<String, TensorSpec> specs(Map<String, Signature.TensorDescription> descriptions) {
+        var specs = new TreeMap<String, TensorSpec>();
+        descriptions.forEach((name, description) -> specs.put(name,
+                new TensorSpec(dtype(description.dataType), description.shape.asArray())));
+        return specs;
+    }
+
+    private static Tensor tensor(String name, Signature.TensorDescription description, TensorValue value) {
+        if (value.shape() == null || value.values() == null) {
+            throw new ModelInputException("Input " + name + " needs a shape and values");
+        }
+        var shape = Shape.of(value.shape());
+        var values = value.values();
+        if (shape.size() != values.size()) {
+            throw new ModelInputException("Input " + name + " of shape " + shape + " needs " + shape.size()
+                    + " values, got " + values.size());
+        }
+        try {
+            switch (description.dataType) {
+            case DT_FLOAT: {
+                var array = new float[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = ((Number) values.get(idx)).floatValue();
+                }
+                return TFloat32.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_DOUBLE: {
+                var array = new double[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = ((Number) values.get(idx)).doubleValue();
+                }
+                return TFloat64.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_INT32: {
+                var array = new int[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = ((Number) values.get(idx)).intValue();
+                }
+                return TInt32.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_INT64: {
+                var array = new long[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = ((Number) values.get(idx)).longValue();
+                }
+                return TInt64.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_UINT8: {
+                var array = new byte[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = (byte) ((Number) values.get(idx)).intValue();
+                }
+                return TUint8.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_BOOL: {
+                var array = new boolean[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = (Boolean) values.get(idx);
+                }
+                return TBool.tensorOf(shape, DataBuffers.of(array, true, false));
+            }
+            case DT_STRING: {
+                var array = new String[values.size()];
+                for (int idx = 0; idx < array.length; idx++) {
+                    array[idx] = (String) values.get(idx);
+                }
+                return TString.tensorOf(shape, DataBuffers.ofObjects(array));
+            }
+            default:
+                throw new ProtoWorkException("Input " + name + " is of the unsupported type "
+                        + dtype(description.dataType));
+            }
+        } catch (ClassCastException | NullPointerException e) {
+            throw new ModelInputException("Input " + name + " needs " + dtype(description.dataType) + " values", e);
+        }
+    }
+
+    private static TensorValue value(Tensor tensor) {
+        var values = new ArrayList<Object>((int) tensor.shape().size());
+        if (tensor instanceof TUint8 bytes) {
+            bytes.scalars().forEach(scalar -> values.add(Byte.toUnsignedInt(scalar.getByte())));
+        } else {
+            ((NdArray<?>) tensor).scalars().forEach(scalar -> values.add(scalar.getObject()));
+        }
+        return new TensorValue(dtype(tensor.dataType()), tensor.shape().asArray(), values);
+    }
+
+    // DT_FLOAT -> float
+    private static String dtype(DataType dataType) {
+        return dataType.name().substring("DT_".length()).toLowerCase(Locale.ROOT);
+    }
+
+    private static long filesSize(Path versionPath) {
+        try (Stream<Path> files = Files.walk(versionPath)) {
+            var size = 0L;
+            for (var file : files.filter(Files::isRegularFile).toList()) {
+                size += Files.size(file);
+            }
+            return size;
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't size the model files of " + versionPath, e);
+        }
+    }
+}
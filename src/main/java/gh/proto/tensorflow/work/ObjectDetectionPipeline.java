@@ -0,0 +1,95 @@
+package gh.proto.tensorflow.work;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import gh.proto.tensorflow.work.ObjectDetector.DetectionFilter;
+import gh.proto.tensorflow.work.ObjectDetector.ObjectBox;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs the {@link ObjectDetector} stages (decode, inference, postprocessing)
+ * on separate bounded executors, so that decoding the next image overlaps with
+ * the inference of the current one. The inference stage is the object
+ * detection lane of the {@link InferenceExecutor}, shared with the single image
+ * requests; a decoded image waits there for room in the lane instead of being
+ * shed, so the decode stage slows down to the inference speed.
+ * <p>
+ * When a stage queue is full the task runs on the submitting thread, which
+ * slows the previous stage down instead of buffering decoded images without
+ * limit.
+ */
+@Component
+public class ObjectDetectionPipeline {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    @Autowired
+    private ObjectDetector objectDetector;
+
+    @Autowired
+    private InferenceExecutor inferenceExecutor;
+
+    @Value("${tensorflow.objectdetection.pipeline.decode-threads:2}")
+    private int decodeThreads;
+
+    @Value("${tensorflow.objectdetection.pipeline.postprocessing-threads:1}")
+    private int postprocessingThreads;
+
+    @Value("${tensorflow.objectdetection.pipeline.queue-capacity:8}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor decodeExecutor;
+    private ThreadPoolExecutor postprocessingExecutor;
+
+    @PostConstruct
+    public void init() {
+        decodeExecutor = newStageExecutor("detect-decode", decodeThreads);
+        postprocessingExecutor = newStageExecutor("detect-postprocess", postprocessingThreads);
+
+        logger.info("Object detection pipeline started: decode [{}], postprocessing [{}] threads", decodeThreads,
+                postprocessingThreads);
+    }
+
+    @PreDestroy
+    public void clean() {
+        decodeExecutor.shutdown();
+        postprocessingExecutor.shutdown();
+    }
+
+    public CompletableFuture<List<ObjectBox>> submit(byte[] imageData, DetectionFilter filter) {
+        return CompletableFuture.supplyAsync(() -> objectDetector.decode(imageData), decodeExecutor)
+                .thenCompose(decodedImage -> inferenceExecutor
+                        .submitWaiting(ObjectDetector.MODEL_NAME, () -> objectDetector.infer(decodedImage))
+                        .whenComplete((modelOutput, e) -> decodedImage.close()))
+                .thenApplyAsync(modelOutput -> objectDetector.postprocess(modelOutput, filter),
+                        postprocessingExecutor);
+    }
+
+    private ThreadPoolExecutor newStageExecutor(String name, int threads) {
+        var threadIdx = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    var thread = new Thread(runnable, name + "-" + threadIdx.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException(name + " stage is stopped");
+                    }
+                    runnable.run();
+                });
+    }
+}
@@ -4,36 +4,102 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.tensorflow.Graph;
+import org.tensorflow.Operand;
 import org.tensorflow.Result;
 import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Session;
 import org.tensorflow.Tensor;
 import org.tensorflow.ndarray.NdArrays;
 import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
 import org.tensorflow.op.Ops;
-import org.tensorflow.op.core.Reshape;
+import org.tensorflow.op.core.ExpandDims;
+import org.tensorflow.op.core.Placeholder;
 import org.tensorflow.op.image.DecodeImage;
 import org.tensorflow.types.TFloat32;
+import org.tensorflow.types.TInt32;
 import org.tensorflow.types.TString;
 import org.tensorflow.types.TUint8;
 
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.InferenceMetrics.ModelMetrics;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Component
 public class ObjectDetector {
 
     private final Logger logger = LogManager.getLogger(getClass());
 
-    private record ObjectBox(int idx, float ymin, float xmin, float ymax, float xmax) {
+    public static final String MODEL_NAME = "objectdetection";
+
+    public record ObjectBox(int idx, float score, float ymin, float xmin, float ymax, float xmax) {
+    };
+
+    /**
+     * Output of the decode stage, holds the [1, height, width, 3] model input
+     * until closed.
+     */
+    public static final class DecodedImage implements AutoCloseable {
+
+        private final Result preprocessingResult;
+        private final ModelMetrics metrics;
+
+        private DecodedImage(Result preprocessingResult, ModelMetrics metrics) {
+            this.preprocessingResult = preprocessingResult;
+            this.metrics = metrics;
+        }
+
+        public TUint8 modelInput() {
+            return (TUint8) preprocessingResult.get(0);
+        }
+
+        @Override
+        public void close() {
+            metrics.close(preprocessingResult);
+        }
+    }
+
+    /**
+     * Which detections are kept, applied in the postprocessing graph.
+     *
+     * @param minScore      detections scoring this or less are dropped
+     * @param maxDetections the most boxes returned, best scores first
+     * @param classes       class indices to keep, all when empty
+     */
+    public record DetectionFilter(float minScore, int maxDetections, List<Integer> classes) {
+
+        public DetectionFilter {
+            if (!(minScore >= 0 && minScore < 1)) {
+                throw new ProtoWorkException("minScore must be in [0, 1), got " + minScore);
+            }
+            if (maxDetections < 1) {
+                throw new ProtoWorkException("maxDetections must be at least 1, got " + maxDetections);
+            }
+            for (var classIdx : classes) {
+                if (classIdx == null || classIdx < 0) {
+                    throw new ProtoWorkException("classes must be class indices, got " + classes);
+                }
+            }
+            classes = List.copyOf(classes);
+        }
     };
 
-    private static final float DETECTION_SENSITIVITY = 0.3f;
+    // boxes of different classes are moved this far apart for the non max
+    // suppression, the box coordinates being normalized to [0, 1]
+    private static final float CLASS_BOX_OFFSET = 2f;
+
+    // side of the auto-tune synthetic images, the EfficientDet D0 input size
+    private static final int SYNTHETIC_IMAGE_SIZE = 512;
 
     private final static String[] COCO_LABELS = new String[] { "index_shifter_value", "person", "bicycle", "car",
             "motorcycle", "airplane", "bus", "train", "truck", "boat", "traffic light", "fire hydrant", "street sign",
@@ -50,65 +116,276 @@ public class ObjectDetector {
     @Value("${tensorflow.objectdetection.path}")
     private String modelPath;
 
+    @Value("${tensorflow.objectdetection.min-score:0.3}")
+    private float defaultMinScore;
+
+    @Value("${tensorflow.objectdetection.max-detections:100}")
+    private int defaultMaxDetections;
+
+    /**
+     * boxes overlapping a better scoring box of the same class more than this
+     * are dropped
+     */
+    @Value("${tensorflow.objectdetection.iou-threshold:0.5}")
+    private float iouThreshold;
+
+    @Autowired
+    private InferenceMetrics inferenceMetrics;
+
+    @Autowired
+    private ModelExecutionProfiles executionProfiles;
+
     private SavedModelBundle model;
 
+    private ModelMetrics metrics;
+    private Timer decodeTimer;
+    private Timer inferTimer;
+    private Timer postprocessTimer;
+
+    // image preprocessing is built once and shared by all the requests: encoded
+    // image bytes -> decoded uint8 image -> [1, height, width, 3] model input
+    private Graph preprocessingGraph;
+    private Session preprocessingSession;
+    private Placeholder<TString> imageBytesPlaceholder;
+    private ExpandDims<TUint8> modelInput;
+
+    // model output of one image -> valid slots masked by score and class -> per
+    // class non max suppression -> [k] classes, [k] scores, [k, 4] boxes
+    private Graph postprocessingGraph;
+    private Session postprocessingSession;
+    private Placeholder<TFloat32> numDetectionsPlaceholder;
+    private Placeholder<TFloat32> scoresPlaceholder;
+    private Placeholder<TFloat32> boxesPlaceholder;
+    private Placeholder<TFloat32> classesPlaceholder;
+    private Placeholder<TFloat32> minScorePlaceholder;
+    private Placeholder<TInt32> maxDetectionsPlaceholder;
+    private Placeholder<TInt32> classFilterPlaceholder;
+    private Operand<TInt32> selectedClasses;
+    private Operand<TFloat32> selectedScores;
+    private Operand<TFloat32> selectedBoxes;
+
     @PostConstruct
     public void init() {
-        model = SavedModelBundle.load(modelPath, SavedModelBundle.DEFAULT_TAG);
+        metrics = inferenceMetrics.model(MODEL_NAME);
+        decodeTimer = metrics.stage("decode");
+        inferTimer = metrics.stage("infer");
+        postprocessTimer = metrics.stage("postprocess");
+
+        model = executionProfiles.load(MODEL_NAME, modelPath, ObjectDetector::syntheticCall);
 
         logger.info("TensorFlow model functions: [{}]", model.signatures());
+
+        preprocessingGraph = new Graph();
+        Ops tensorFlowApi = Ops.create(preprocessingGraph);
+        imageBytesPlaceholder = tensorFlowApi.placeholder(TString.class, Placeholder.shape(Shape.scalar()));
+        DecodeImage.Options[] options = { DecodeImage.channels(3L) };
+        // https://discuss.ai.google.dev/t/decode-jpeg-from-byte/31508
+        DecodeImage<TUint8> decodeImage = tensorFlowApi.image.decodeImage(imageBytesPlaceholder, options);
+        modelInput = tensorFlowApi.expandDims(decodeImage, tensorFlowApi.constant(0));
+        preprocessingSession = new Session(preprocessingGraph, executionProfiles.configProto(MODEL_NAME));
+
+        buildPostprocessing();
+    }
+
+    private void buildPostprocessing() {
+        postprocessingGraph = new Graph();
+        Ops tensorFlowApi = Ops.create(postprocessingGraph);
+        numDetectionsPlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.of(1)));
+        scoresPlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.of(1, -1)));
+        boxesPlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.of(1, -1, 4)));
+        classesPlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.of(1, -1)));
+        minScorePlaceholder = tensorFlowApi.placeholder(TFloat32.class, Placeholder.shape(Shape.scalar()));
+        maxDetectionsPlaceholder = tensorFlowApi.placeholder(TInt32.class, Placeholder.shape(Shape.scalar()));
+        classFilterPlaceholder = tensorFlowApi.placeholder(TInt32.class, Placeholder.shape(Shape.of(-1)));
+
+        var firstImage = tensorFlowApi.constant(0);
+        var scores = tensorFlowApi.gather(scoresPlaceholder, firstImage, firstImage);
+        var boxes = tensorFlowApi.gather(boxesPlaceholder, firstImage, firstImage);
+        var classes = tensorFlowApi.dtypes.cast(tensorFlowApi.gather(classesPlaceholder, firstImage, firstImage),
+                TInt32.class);
+
+        // the slots past num_detections are padding
+        var numDetections = tensorFlowApi.dtypes.cast(tensorFlowApi.gather(numDetectionsPlaceholder, firstImage,
+                firstImage), TInt32.class);
+        var slots = tensorFlowApi.range(firstImage, tensorFlowApi.size(scores), tensorFlowApi.constant(1));
+        var validSlots = tensorFlowApi.math.less(slots, numDetections);
+
+        // [n, 1] == [1, c] -> [n, c] -> any per slot, or no filter
+        var classMatches = tensorFlowApi.reduceAny(tensorFlowApi.math.equal(
+                tensorFlowApi.expandDims(classes, tensorFlowApi.constant(1)),
+                tensorFlowApi.expandDims(classFilterPlaceholder, firstImage)), tensorFlowApi.constant(1));
+        var allClasses = tensorFlowApi.math.equal(tensorFlowApi.size(classFilterPlaceholder), firstImage);
+        var keptSlots = tensorFlowApi.math.logicalAnd(validSlots,
+                tensorFlowApi.math.logicalOr(classMatches, allClasses));
+        // dropped slots score below any min score
+        var maskedScores = tensorFlowApi.select(keptSlots, scores,
+                tensorFlowApi.fill(tensorFlowApi.shape(scores), tensorFlowApi.constant(-1f)));
+
+        // shifting each class apart keeps the suppression within a class
+        var classOffsets = tensorFlowApi.math.mul(tensorFlowApi.dtypes.cast(classes, TFloat32.class),
+                tensorFlowApi.constant(CLASS_BOX_OFFSET));
+        var suppressionBoxes = tensorFlowApi.math.add(boxes,
+                tensorFlowApi.expandDims(classOffsets, tensorFlowApi.constant(1)));
+        // sorted by score, at most maxDetections
+        var suppression = tensorFlowApi.image.nonMaxSuppression(suppressionBoxes, maskedScores,
+                maxDetectionsPlaceholder, tensorFlowApi.constant(iouThreshold), minScorePlaceholder,
+                tensorFlowApi.constant(0f));
+
+        selectedClasses = tensorFlowApi.gather(classes, suppression.selectedIndices(), firstImage);
+        selectedScores = suppression.selectedScores();
+        selectedBoxes = tensorFlowApi.gather(boxes, suppression.selectedIndices(), firstImage);
+        postprocessingSession = new Session(postprocessingGraph, executionProfiles.configProto(MODEL_NAME));
+    }
+
+    @PreDestroy
+    public void clean() {
+        postprocessingSession.close();
+        postprocessingGraph.close();
+        preprocessingSession.close();
+        preprocessingGraph.close();
+        model.close();
+    }
+
+    /**
+     * @return the filter of the configured min score and max detections, for all
+     *         the classes
+     */
+    public DetectionFilter defaultFilter() {
+        return filter(null, null, null);
+    }
+
+    /**
+     * @param minScore      the configured one when null
+     * @param maxDetections the configured one when null
+     * @param classes       all the classes when null
+     */
+    public DetectionFilter filter(Float minScore, Integer maxDetections, List<Integer> classes) {
+        return new DetectionFilter(minScore == null ? defaultMinScore : minScore,
+                maxDetections == null ? defaultMaxDetections : maxDetections, classes == null ? List.of() : classes);
     }
 
     public byte[] detect(byte[] imageData) {
-        var response = runModel(imageData);
+        return detect(imageData, defaultFilter());
+    }
 
-        logger.info("Detection data: [{}]", response);
+    public byte[] detect(byte[] imageData, DetectionFilter filter) {
+        var response = detectBoxes(imageData, filter);
+
+        logger.debug("Detection data: [{}]", response);
 
         return response.toString().getBytes();
     }
 
-    private List<ObjectBox> runModel(byte[] imageData) {
-        var objectBoxes = new ArrayList<ObjectBox>();
-
-        try (Graph tfGtaph = new Graph(); Session tfSession = new Session(tfGtaph)) {
-            Ops tensorFlowApi = Ops.create(tfGtaph);
-            Session.Runner runner = tfSession.runner();
-            DecodeImage.Options[] options = { DecodeImage.channels(3L) };
-            // https://discuss.ai.google.dev/t/decode-jpeg-from-byte/31508
-            DecodeImage<TUint8> decodeImage = tensorFlowApi.image.decodeImage(
-                    tensorFlowApi.constant(TString.tensorOfBytes(NdArrays.scalarOfObject(imageData))), options);
-            Shape imageShape;
-            try (var shapeResult = runner.fetch(decodeImage).run()) {
-                imageShape = shapeResult.get(0).shape();
-            }
-            Reshape<TUint8> reshape = tensorFlowApi.reshape(decodeImage,
-                    tensorFlowApi.array(1, imageShape.asArray()[0], imageShape.asArray()[1], 3));
-            try (var reshapeResult = tfSession.runner().fetch(reshape).run()) {
-                TUint8 reshapeTensor = (TUint8) reshapeResult.get(0);
-                Map<String, Tensor> feedDict = new HashMap<>();
-                feedDict.put("input_tensor", reshapeTensor);
-                try (Result outputTensorMap = model.function("serving_default").call(feedDict)) {
-                    TFloat32 numDetections = (TFloat32) outputTensorMap.get("num_detections").get();
-                    int numDetects = (int) numDetections.getFloat(0);
-                    if (numDetects > 0) {
-                        TFloat32 detectionScores = (TFloat32) outputTensorMap.get("detection_scores").get();
-                        TFloat32 detectionBoxes = (TFloat32) outputTensorMap.get("detection_boxes").get();
-                        TFloat32 detectionClasses = (TFloat32) outputTensorMap.get("detection_classes").get();
-                        for (int n = 0; n < numDetects; n++) {
-                            float detectionScore = detectionScores.getFloat(0, n);
-                            if (detectionScore > DETECTION_SENSITIVITY) {
-                                var modelBox = detectionBoxes.get(0, n);
-                                var objectBox = new ObjectBox((int) detectionClasses.getFloat(0, n),
-                                        modelBox.getFloat(0), modelBox.getFloat(1), modelBox.getFloat(2),
-                                        modelBox.getFloat(3));
-                                logger.info("Current box: [{}], label: [{}]", objectBox, COCO_LABELS[objectBox.idx]);
-                                objectBoxes.add(objectBox);
-                            }
-                        }
-                    }
+    public List<ObjectBox> detectBoxes(byte[] imageData) {
+        return detectBoxes(imageData, defaultFilter());
+    }
+
+    public List<ObjectBox> detectBoxes(byte[] imageData, DetectionFilter filter) {
+        try (var decodedImage = decode(imageData)) {
+            return postprocess(infer(decodedImage), filter);
+        }
+    }
+
+    /**
+     * Decode stage: encoded image bytes to model input.
+     */
+    public DecodedImage decode(byte[] imageData) {
+        var decodeStart = System.nanoTime();
+        var imageBytesTensor = metrics.allocated(TString.tensorOfBytes(NdArrays.scalarOfObject(imageData)));
+        try {
+            var preprocessingResult = preprocessingSession.runner().feed(imageBytesPlaceholder, imageBytesTensor)
+                    .fetch(modelInput).run();
+            var decodedImage = new DecodedImage(metrics.allocated(preprocessingResult), metrics);
+            decodeTimer.record(System.nanoTime() - decodeStart, TimeUnit.NANOSECONDS);
+            return decodedImage;
+        } finally {
+            metrics.close(imageBytesTensor);
+        }
+    }
+
+    /**
+     * Inference stage: runs the model signature on a decoded image, the caller
+     * owns the returned result.
+     */
+    public Result infer(DecodedImage decodedImage) {
+        Map<String, Tensor> feedDict = new HashMap<>();
+        feedDict.put("input_tensor", decodedImage.modelInput());
+        var inferStart = metrics.callStarted();
+        var failed = true;
+        try {
+            var modelOutput = metrics.allocated(model.function("serving_default").call(feedDict));
+            failed = false;
+            return modelOutput;
+        } finally {
+            metrics.callDone(inferTimer, inferStart, failed);
+        }
+    }
+
+    /**
+     * Runs the model on a black image, without the metrics of the real calls.
+     */
+    private static void syntheticCall(SavedModelBundle bundle) {
+        try (var image = TUint8.tensorOf(Shape.of(1, SYNTHETIC_IMAGE_SIZE, SYNTHETIC_IMAGE_SIZE, 3))) {
+            // only the run matters
+            bundle.function("serving_default").call(Map.of("input_tensor", image)).close();
+        }
+    }
+
+    public List<ObjectBox> postprocess(Result modelOutput) {
+        return postprocess(modelOutput, defaultFilter());
+    }
+
+    /**
+     * Postprocessing stage: model output to boxes, the model output is closed.
+     * <p>
+     * The filtering runs in the postprocessing graph, only the kept boxes are
+     * copied out, with one bulk read per output.
+     */
+    public List<ObjectBox> postprocess(Result modelOutput, DetectionFilter filter) {
+        var postprocessStart = System.nanoTime();
+        List<ObjectBox> objectBoxes;
+
+        var minScoreTensor = metrics.allocated(TFloat32.scalarOf(filter.minScore()));
+        var maxDetectionsTensor = metrics.allocated(TInt32.scalarOf(filter.maxDetections()));
+        var classFilterTensor = metrics.allocated(TInt32.vectorOf(filter.classes().stream()
+                .mapToInt(Integer::intValue).toArray()));
+        try {
+            var selected = metrics.allocated(postprocessingSession.runner()
+                    .feed(numDetectionsPlaceholder, modelOutput.get("num_detections").get())
+                    .feed(scoresPlaceholder, modelOutput.get("detection_scores").get())
+                    .feed(boxesPlaceholder, modelOutput.get("detection_boxes").get())
+                    .feed(classesPlaceholder, modelOutput.get("detection_classes").get())
+                    .feed(minScorePlaceholder, minScoreTensor).feed(maxDetectionsPlaceholder, maxDetectionsTensor)
+                    .feed(classFilterPlaceholder, classFilterTensor).fetch(selectedClasses).fetch(selectedScores)
+                    .fetch(selectedBoxes).run());
+            try {
+                var selectedCount = (int) selected.get(0).shape().get(0);
+                var classes = new int[selectedCount];
+                var scores = new float[selectedCount];
+                var boxes = new float[selectedCount * 4];
+                ((TInt32) selected.get(0)).copyTo(DataBuffers.of(classes, false, false));
+                ((TFloat32) selected.get(1)).copyTo(DataBuffers.of(scores, false, false));
+                ((TFloat32) selected.get(2)).copyTo(DataBuffers.of(boxes, false, false));
+
+                var boxList = new ArrayList<ObjectBox>(selectedCount);
+                for (int n = 0; n < selectedCount; n++) {
+                    var objectBox = new ObjectBox(classes[n], scores[n], boxes[n * 4], boxes[n * 4 + 1],
+                            boxes[n * 4 + 2], boxes[n * 4 + 3]);
+                    logger.debug("Current box: [{}], label: [{}]", objectBox,
+                            objectBox.idx < COCO_LABELS.length ? COCO_LABELS[objectBox.idx] : null);
+                    boxList.add(objectBox);
                 }
+                objectBoxes = boxList;
+            } finally {
+                metrics.close(selected);
             }
+        } finally {
+            metrics.close(classFilterTensor);
+            metrics.close(maxDetectionsTensor);
+            metrics.close(minScoreTensor);
+            metrics.close(modelOutput);
         }
+        postprocessTimer.record(System.nanoTime() - postprocessStart, TimeUnit.NANOSECONDS);
         return objectBoxes;
     }
 }
@@ -0,0 +1,147 @@
+package gh.proto.tensorflow.work;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.tensorflow.SavedModelBundle;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Holds the current {@link SavedModelBundle} of a model and lets it be replaced
+ * while requests are running.
+ * <p>
+ * Every use of the bundle goes thru a {@link Lease}; a replaced bundle is
+ * closed only once the last lease taken on it is closed, so in-flight calls
+ * finish on the bundle they started with.
+ */
+public final class SavedModelHolder implements AutoCloseable {
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private static final class LoadedModel {
+
+        private final SavedModelBundle bundle;
+        private final String version;
+        // one reference belongs to the holder while the model is current
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private LoadedModel(SavedModelBundle bundle, String version) {
+            this.bundle = bundle;
+            this.version = version;
+        }
+
+        private boolean retain() {
+            while (true) {
+                var current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                bundle.close();
+            }
+        }
+    }
+
+    /**
+     * Keeps a bundle open until closed, must be closed by the same code that
+     * acquired it.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final LoadedModel model;
+        private boolean closed;
+
+        private Lease(LoadedModel model) {
+            this.model = model;
+        }
+
+        public SavedModelBundle bundle() {
+            return model.bundle;
+        }
+
+        public String version() {
+            return model.version;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                model.release();
+            }
+        }
+    }
+
+    private final String name;
+
+    private final AtomicReference<LoadedModel> current;
+
+    private final List<Runnable> swapListeners = new CopyOnWriteArrayList<>();
+
+    public SavedModelHolder(String name, SavedModelBundle bundle, String version) {
+        this.name = name;
+        this.current = new AtomicReference<>(new LoadedModel(bundle, version));
+    }
+
+    public Lease acquire() {
+        while (true) {
+            var model = current.get();
+            if (model == null) {
+                throw new ProtoWorkException("Model " + name + " is closed");
+            }
+            // fails only when the model was swapped out and fully released meanwhile
+            if (model.retain()) {
+                return new Lease(model);
+            }
+        }
+    }
+
+    public String version() {
+        var model = current.get();
+        return model == null ? null : model.version;
+    }
+
+    /**
+     * Makes the given bundle the current one, the previous bundle is closed once
+     * its leases are closed.
+     */
+    public void swap(SavedModelBundle bundle, String version) {
+        var previous = current.getAndSet(new LoadedModel(bundle, version));
+        if (previous == null) {
+            // closed meanwhile, don't keep the new bundle open
+            current.set(null);
+            bundle.close();
+            throw new ProtoWorkException("Model " + name + " is closed");
+        }
+        logger.info("Model [{}] swapped from version [{}] to [{}]", name, previous.version, version);
+        previous.release();
+        swapListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * @param listener called after every swap, on the swapping thread
+     */
+    public void addSwapListener(Runnable listener) {
+        swapListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        var previous = current.getAndSet(null);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package gh.proto.tensorflow.work;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.springframework.util.FileSystemUtils;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+/**
+ * Versioned SavedModel export directories: every export goes to a new numeric
+ * sub directory of the model path, the highest number is the latest version.
+ * <p>
+ * A model path holding a SavedModel directly (no version sub directories yet)
+ * is treated as a single unversioned model.
+ */
+public final class SavedModelVersions {
+
+    private static final String SAVED_MODEL_FILE_NAME = "saved_model.pb";
+
+    private SavedModelVersions() {
+    }
+
+    /**
+     * @return the directory of the latest exported version, empty if nothing was
+     *         exported yet
+     */
+    public static Optional<Path> latest(String modelPath) {
+        var basePath = Path.of(modelPath);
+        var versions = versions(basePath);
+        if (!versions.isEmpty()) {
+            return Optional.of(versions.get(versions.size() - 1));
+        }
+        if (Files.isRegularFile(basePath.resolve(SAVED_MODEL_FILE_NAME))) {
+            return Optional.of(basePath);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return a new, not yet existing, version directory newer than all the
+     *         existing ones
+     */
+    public static Path next(String modelPath) {
+        var basePath = Path.of(modelPath);
+        var versions = versions(basePath);
+        var version = System.currentTimeMillis();
+        if (!versions.isEmpty()) {
+            version = Math.max(version, versionOf(versions.get(versions.size() - 1)) + 1);
+        }
+        return basePath.resolve(Long.toString(version));
+    }
+
+    /**
+     * Deletes all but the newest versions.
+     */
+    public static void prune(String modelPath, int keep) throws IOException {
+        var versions = versions(Path.of(modelPath));
+        for (int idx = 0; idx < versions.size() - keep; idx++) {
+            FileSystemUtils.deleteRecursively(versions.get(idx));
+        }
+    }
+
+    public static String versionName(Path versionPath) {
+        return versionPath.getFileName().toString();
+    }
+
+    private static List<Path> versions(Path basePath) {
+        if (!Files.isDirectory(basePath)) {
+            return List.of();
+        }
+        try (Stream<Path> children = Files.list(basePath)) {
+            return children.filter(child -> child.getFileName().toString().chars().allMatch(Character::isDigit))
+                    .filter(child -> Files.isRegularFile(child.resolve(SAVED_MODEL_FILE_NAME)))
+                    .sorted(Comparator.comparingLong(SavedModelVersions::versionOf)).toList();
+        } catch (IOException e) {
+            throw new ProtoWorkException("Can't list the versions of " + basePath, e);
+        }
+    }
+
+    private static long versionOf(Path versionPath) {
+        return Long.parseLong(versionName(versionPath));
+    }
+}
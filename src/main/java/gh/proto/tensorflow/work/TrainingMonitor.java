@@ -0,0 +1,27 @@
+package gh.proto.tensorflow.work;
+
+/**
+ * Receives the progress of a training run or sweep and can stop it between two
+ * optimizer steps.
+ */
+public interface TrainingMonitor {
+
+    TrainingMonitor NONE = new TrainingMonitor() {
+    };
+
+    default void epochDone(int epoch, int epochs, int predictedOk, int samples, double meanLoss) {
+    }
+
+    /**
+     * A run of a hyperparameter sweep was trained and scored, runs end in any
+     * order.
+     *
+     * @param best the best run so far
+     */
+    default void sweepRunDone(int runsDone, int runs, IrisHyperparameterSweep.SweepRun best) {
+    }
+
+    default boolean isCancelled() {
+        return false;
+    }
+}
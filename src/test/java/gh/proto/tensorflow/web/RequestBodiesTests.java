@@ -0,0 +1,113 @@
+package gh.proto.tensorflow.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Bodies read with and without a Content-Length, the chunked ones through the
+ * buffer of the test thread.
+ */
+class RequestBodiesTests {
+
+    private static final int MAX_RETAINED_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    @BeforeEach
+    void setUp() {
+        reusableBuffer().remove();
+    }
+
+    @Test
+    void readsTheContentLengthExactly() throws IOException {
+        var body = body(100000);
+
+        assertThat(RequestBodies.read(request(body, body.length), body.length)).isEqualTo(body);
+        // the buffer is for chunked bodies only
+        assertThat(reusableBuffer().get()).hasSize(64 * 1024);
+    }
+
+    @Test
+    void rejectsABodyShorterThanItsContentLength() {
+        var body = body(10);
+
+        assertThatThrownBy(() -> RequestBodies.read(request(body, 11), 100)).isInstanceOfSatisfying(
+                ResponseStatusException.class, e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void growsTheBufferOfAChunkedBody() throws IOException {
+        var body = body(200000);
+
+        assertThat(RequestBodies.read(request(body, -1), body.length)).isEqualTo(body);
+        // kept for the next bodies of the thread
+        assertThat(reusableBuffer().get().length).isGreaterThanOrEqualTo(body.length);
+    }
+
+    @Test
+    void rejectsBodiesOverTheMax() {
+        var body = body(1000);
+
+        assertThat(status(() -> RequestBodies.read(request(body, body.length), 999)))
+                .isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+        assertThat(status(() -> RequestBodies.read(request(body, -1), 999))).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+        // the max itself is allowed
+        assertThat(status(() -> RequestBodies.read(request(body, -1), 1000))).isNull();
+    }
+
+    @Test
+    void doesNotKeepBuffersOverTheRetainedSize() throws IOException {
+        var body = body(2 * MAX_RETAINED_BUFFER_BYTES);
+
+        assertThat(RequestBodies.read(request(body, -1), body.length)).isEqualTo(body);
+        assertThat(reusableBuffer().get().length).isLessThanOrEqualTo(MAX_RETAINED_BUFFER_BYTES);
+    }
+
+    private interface Read {
+        byte[] read() throws IOException;
+    }
+
+    private static HttpStatus status(Read read) {
+        try {
+            read.read();
+            return null;
+        } catch (ResponseStatusException e) {
+            return HttpStatus.valueOf(e.getStatusCode().value());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] body(int length) {
+        var body = new byte[length];
+        new Random(length).nextBytes(body);
+        return body;
+    }
+
+    /**
+     * @param contentLength -1 for a chunked body
+     */
+    private static MockHttpServletRequest request(byte[] body, long contentLength) {
+        var request = new MockHttpServletRequest() {
+            @Override
+            public long getContentLengthLong() {
+                return contentLength;
+            }
+        };
+        request.setContent(body);
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadLocal<byte[]> reusableBuffer() {
+        return (ThreadLocal<byte[]>) ReflectionTestUtils.getField(RequestBodies.class, "REUSABLE_BUFFER");
+    }
+}
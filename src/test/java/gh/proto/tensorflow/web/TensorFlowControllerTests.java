@@ -0,0 +1,56 @@
+package gh.proto.tensorflow.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.work.ObjectDetector.ObjectBox;
+
+/**
+ * The packed detections, written without a running server.
+ */
+class TensorFlowControllerTests {
+
+    @Test
+    void packsSixLittleEndianFloatsPerBox() {
+        var boxes = List.of(new ObjectBox(18, 0.9f, 0.1f, 0.2f, 0.3f, 0.4f),
+                new ObjectBox(1, 0.5f, 0.5f, 0.6f, 0.7f, 0.8f));
+
+        byte[] packed = ReflectionTestUtils.invokeMethod(TensorFlowController.class, "pack", boxes);
+
+        assertThat(packed).hasSize(2 * 6 * Float.BYTES);
+        // class 18 as the float 18.0f, 0x41900000, least significant byte first
+        assertThat(packed).startsWith(0x00, 0x00, (byte) 0x90, 0x41);
+        var floats = ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        var values = new float[floats.remaining()];
+        floats.get(values);
+        assertThat(values).containsExactly(18, 0.9f, 0.1f, 0.2f, 0.3f, 0.4f, 1, 0.5f, 0.5f, 0.6f, 0.7f, 0.8f);
+    }
+
+    @Test
+    void packsNoBoxesAsAnEmptyBody() {
+        byte[] packed = ReflectionTestUtils.invokeMethod(TensorFlowController.class, "pack", List.of());
+
+        assertThat(packed).isEmpty();
+    }
+
+    @Test
+    void packsOnlyWhenTheAcceptHeaderAsksForIt() {
+        assertThat(acceptsPacked(null)).isFalse();
+        assertThat(acceptsPacked("application/octet-stream")).isFalse();
+        assertThat(acceptsPacked(TensorFlowController.PACKED_DETECTIONS_VALUE)).isTrue();
+        assertThat(acceptsPacked("application/octet-stream;q=0.5, application/x-detections-f32le")).isTrue();
+        assertThat(acceptsPacked("application/x-detections-f32le;q=0")).isFalse();
+    }
+
+    private static boolean acceptsPacked(String accept) {
+        Boolean accepted = ReflectionTestUtils.invokeMethod(TensorFlowController.class, "acceptsPackedDetections",
+                accept);
+        return accepted;
+    }
+}
@@ -0,0 +1,122 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tensorflow.Graph;
+import org.tensorflow.Result;
+import org.tensorflow.Session;
+import org.tensorflow.SessionFunction;
+import org.tensorflow.Signature;
+import org.tensorflow.Tensor;
+import org.tensorflow.ndarray.StdArrays;
+import org.tensorflow.op.Ops;
+import org.tensorflow.proto.ConfigProto;
+import org.tensorflow.types.TFloat32;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.ImageClassifier.ImageClass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The top-k graph fed with logits of a stand-in signature, the model itself is
+ * not loaded.
+ */
+class ImageClassifierTests {
+
+    private static final String LOGITS = "logits";
+
+    private ImageClassifier imageClassifier;
+    private Graph modelGraph;
+    private Session modelSession;
+    private SessionFunction modelFunction;
+
+    @BeforeEach
+    void setUp() {
+        var executionProfiles = mock(ModelExecutionProfiles.class);
+        when(executionProfiles.configProto(anyString())).thenReturn(ConfigProto.getDefaultInstance());
+        var metrics = new InferenceMetrics(new SimpleMeterRegistry()).model(ImageClassifier.MODEL_NAME);
+
+        imageClassifier = new ImageClassifier();
+        ReflectionTestUtils.setField(imageClassifier, "defaultTopK", 5);
+        ReflectionTestUtils.setField(imageClassifier, "maxBatchSize", 2);
+        ReflectionTestUtils.setField(imageClassifier, "labels", List.of("background", "cat", "dog"));
+        ReflectionTestUtils.setField(imageClassifier, "executionProfiles", executionProfiles);
+        ReflectionTestUtils.setField(imageClassifier, "metrics", metrics);
+        ReflectionTestUtils.setField(imageClassifier, "topKTimer", metrics.stage("topk"));
+        ReflectionTestUtils.invokeMethod(imageClassifier, "buildTopK");
+
+        // the logits fed through, under their signature name
+        modelGraph = new Graph();
+        var tensorFlowApi = Ops.create(modelGraph);
+        var placeholder = tensorFlowApi.withName(LOGITS).placeholder(TFloat32.class);
+        var signature = Signature.builder().key("serving_default").input(LOGITS, placeholder).output(LOGITS,
+                tensorFlowApi.identity(placeholder));
+        modelSession = new Session(modelGraph);
+        modelFunction = SessionFunction.create(signature.build(), modelSession);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ((Session) ReflectionTestUtils.getField(imageClassifier, "topKSession")).close();
+        ((Graph) ReflectionTestUtils.getField(imageClassifier, "topKGraph")).close();
+        modelSession.close();
+        modelGraph.close();
+    }
+
+    @Test
+    void answersTheMostLikelyClassesFirstForEachImage() {
+        var imageClasses = topK(2, new float[][] { { 0, 3, 1, 2 }, { 4, 0, 1, 2 } });
+
+        assertThat(imageClasses.get(0)).extracting(ImageClass::idx).containsExactly(1, 3);
+        assertThat(imageClasses.get(1)).extracting(ImageClass::idx).containsExactly(0, 3);
+        assertThat(imageClasses.get(0).get(0).score()).isGreaterThan(imageClasses.get(0).get(1).score());
+        // softmax scores
+        assertThat(imageClasses.get(1).get(0).score()).isBetween(0.8f, 0.9f);
+    }
+
+    @Test
+    void clampsKToTheNumberOfClasses() {
+        var imageClasses = topK(10, new float[][] { { 0, 3, 1 } });
+
+        assertThat(imageClasses.get(0)).extracting(ImageClass::idx).containsExactly(1, 2, 0);
+    }
+
+    @Test
+    void classesPastTheLabelsHaveNoLabel() {
+        var imageClasses = topK(4, new float[][] { { 0, 3, 1, 2 } });
+
+        assertThat(imageClasses.get(0)).extracting(ImageClass::label).containsExactly("cat", null, "dog",
+                "background");
+    }
+
+    @Test
+    void rejectsBadKsAndBatchesOverTheMaxBatchSize() {
+        assertThat(imageClassifier.topK(null)).isEqualTo(5);
+        assertThat(imageClassifier.topK(1)).isEqualTo(1);
+        assertThatThrownBy(() -> imageClassifier.topK(0)).isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> imageClassifier.classify(List.of(new byte[0]), -1))
+                .isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> imageClassifier.classify(List.of(new byte[0], new byte[0], new byte[0]), 1))
+                .isInstanceOf(ProtoWorkException.class).hasMessageContaining("At most 2 images");
+    }
+
+    private List<List<ImageClass>> topK(int k, float[][] logits) {
+        try (var logitsTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(logits))) {
+            Map<String, Tensor> feedDict = Map.of(LOGITS, logitsTensor);
+            try (Result modelOutput = modelFunction.call(feedDict)) {
+                return ReflectionTestUtils.invokeMethod(imageClassifier, "topK", modelOutput, k);
+            }
+        }
+    }
+}
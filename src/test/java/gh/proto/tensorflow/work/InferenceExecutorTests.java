@@ -0,0 +1,186 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class InferenceExecutorTests {
+
+    private static final String MODEL = "test";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private InferenceExecutor inferenceExecutor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (inferenceExecutor != null) {
+            inferenceExecutor.clean();
+        }
+    }
+
+    @Test
+    void rejectsCallsOverTheQueueCapacity() {
+        executor(1, 1, 60000);
+        var running = inferenceExecutor.submit(MODEL, this::blocked);
+        var queued = inferenceExecutor.submit(MODEL, () -> "queued");
+        awaitStarted(running);
+
+        var rejected = inferenceExecutor.submit(MODEL, () -> "rejected");
+
+        assertThat(reason(rejected)).isEqualTo(Reason.QUEUE_FULL);
+        release.countDown();
+        assertThat(running).succeedsWithin(TIMEOUT).isEqualTo("released");
+        assertThat(queued).succeedsWithin(TIMEOUT).isEqualTo("queued");
+    }
+
+    @Test
+    void dropsQueuedCallsThatWaitedOverTheBudget() throws InterruptedException {
+        executor(1, 4, 50);
+        var running = inferenceExecutor.submit(MODEL, this::blocked);
+        awaitStarted(running);
+        var queued = inferenceExecutor.submit(MODEL, () -> "queued");
+
+        Thread.sleep(200);
+        release.countDown();
+
+        assertThat(running).succeedsWithin(TIMEOUT);
+        assertThat(reason(queued)).isEqualTo(Reason.QUEUE_TIMEOUT);
+    }
+
+    @Test
+    void rejectsRightAwayCallsExpectedToWaitOverTheBudget() {
+        executor(1, 4, 50);
+        assertThat(inferenceExecutor.submit(MODEL, () -> sleep(100))).succeedsWithin(TIMEOUT);
+        var running = inferenceExecutor.submit(MODEL, this::blocked);
+        awaitStarted(running);
+        var queued = inferenceExecutor.submit(MODEL, () -> "queued");
+
+        // one queued call at a 100ms mean run time is over the 50ms budget
+        var rejected = inferenceExecutor.submit(MODEL, () -> "rejected");
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThat(reason(rejected)).isEqualTo(Reason.QUEUE_TIMEOUT);
+        assertThat(queued).isNotDone();
+    }
+
+    @Test
+    void waitingCallsAreNeitherRejectedNorDropped() throws InterruptedException {
+        executor(1, 1, 100);
+        var running = inferenceExecutor.submit(MODEL, this::blocked);
+        awaitStarted(running);
+        // the queue is full of an interactive call
+        var queued = inferenceExecutor.submit(MODEL, () -> "queued");
+
+        var waitingCalls = new ArrayList<CompletableFuture<String>>();
+        var submitter = new Thread(() -> {
+            for (int idx = 0; idx < 3; idx++) {
+                var callIdx = idx;
+                waitingCalls.add(inferenceExecutor.submitWaiting(MODEL, () -> "waiting-" + callIdx));
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        assertThat(submitter.isAlive()).as("blocked while the lane is full").isTrue();
+
+        // past the budget of the queued calls
+        Thread.sleep(100);
+        release.countDown();
+        submitter.join(TIMEOUT.toMillis());
+
+        assertThat(running).succeedsWithin(TIMEOUT);
+        assertThat(reason(queued)).isEqualTo(Reason.QUEUE_TIMEOUT);
+        assertThat(waitingCalls).hasSize(3);
+        for (int idx = 0; idx < 3; idx++) {
+            assertThat(waitingCalls.get(idx)).succeedsWithin(TIMEOUT).isEqualTo("waiting-" + idx);
+        }
+    }
+
+    @Test
+    void rejectsCallsOnceStopped() {
+        executor(1, 1, 500);
+        inferenceExecutor.clean();
+
+        assertThat(reason(inferenceExecutor.submit(MODEL, () -> "stopped"))).isEqualTo(Reason.STOPPED);
+        assertThat(reason(inferenceExecutor.submitWaiting(MODEL, () -> "stopped"))).isEqualTo(Reason.STOPPED);
+    }
+
+    @Test
+    void readsTheModelLimitsOverTheDefaults() {
+        executor(2, 8, 500);
+        var environment = (MockEnvironment) ReflectionTestUtils.getField(inferenceExecutor, "environment");
+        environment.setProperty("tensorflow.inference.models.other.max-concurrency", "3");
+
+        assertThat(inferenceExecutor.maxConcurrency(MODEL)).isEqualTo(2);
+        assertThat(inferenceExecutor.maxConcurrency("other")).isEqualTo(3);
+        assertThat(inferenceExecutor.maxQueueWaitNanos(MODEL)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    private void executor(int maxConcurrency, int queueCapacity, long maxQueueWaitMillis) {
+        var environment = new MockEnvironment()
+                .withProperty("tensorflow.inference.defaults.max-concurrency", Integer.toString(maxConcurrency))
+                .withProperty("tensorflow.inference.defaults.queue-capacity", Integer.toString(queueCapacity))
+                .withProperty("tensorflow.inference.defaults.max-queue-wait-millis",
+                        Long.toString(maxQueueWaitMillis));
+        inferenceExecutor = new InferenceExecutor();
+        ReflectionTestUtils.setField(inferenceExecutor, "environment", environment);
+        ReflectionTestUtils.setField(inferenceExecutor, "inferenceMetrics",
+                new InferenceMetrics(new SimpleMeterRegistry()));
+    }
+
+    private String blocked() {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "released";
+    }
+
+    private void awaitStarted(CompletableFuture<String> running) {
+        try {
+            assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        assertThat(running).isNotDone();
+    }
+
+    private static String sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "slept";
+    }
+
+    private static Reason reason(CompletableFuture<String> future) {
+        try {
+            future.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(InferenceRejectedException.class);
+            return ((InferenceRejectedException) e.getCause()).reason();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        throw new AssertionError("Expected a rejection");
+    }
+}
@@ -0,0 +1,170 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.ndarray.StdArrays;
+import org.tensorflow.op.Ops;
+import org.tensorflow.op.core.Placeholder;
+import org.tensorflow.op.core.Variable;
+import org.tensorflow.types.TFloat32;
+
+class IrisCheckpointsTests {
+
+    @TempDir
+    Path checkpointPath;
+
+    private Graph graph;
+    private Session session;
+    private Variable<TFloat32> weight;
+    private Placeholder<TFloat32> value;
+    private Ops tensorFlowApi;
+
+    @BeforeEach
+    void setUp() {
+        graph = new Graph();
+        tensorFlowApi = Ops.create(graph);
+        weight = tensorFlowApi.withName("weight").variable(tensorFlowApi.constant(1f));
+        value = tensorFlowApi.placeholder(TFloat32.class);
+        session = new Session(graph);
+        session.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+        graph.close();
+    }
+
+    @Test
+    void resumesTheLatestCheckpointOfTheSameRun() throws IOException {
+        var checkpoints = checkpoints("run", 5);
+        setWeight(2f);
+        checkpoints.save(session, 1, 10, 1, null);
+        setWeight(3f);
+        checkpoints.save(session, 2, 12, 2, null);
+        setWeight(4f);
+
+        var latest = checkpoints.latest().orElseThrow();
+        assertThat(latest.epoch()).isEqualTo(2);
+        assertThat(latest.bestValidationPredictedOk()).isEqualTo(12);
+        assertThat(latest.bestEpoch()).isEqualTo(2);
+
+        checkpoints.restore(session, latest);
+        assertThat(weight()).isEqualTo(3f);
+    }
+
+    @Test
+    void savesTheBestWeightsAlong() throws IOException {
+        var checkpoints = checkpoints("run", 5);
+        setWeight(3f);
+        try (var bestWeight = TFloat32.scalarOf(2f);
+                var bestMatrix = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][] { { 1f, 2f }, { 3f, 4f },
+                        { 5f, 6f } }))) {
+            checkpoints.save(session, 2, 12, 1, List.of(bestWeight, bestMatrix));
+        }
+
+        var weights = checkpoints.bestWeights(checkpoints.latest().orElseThrow());
+        try {
+            assertThat(weights).hasSize(2);
+            assertThat(weights.get(0).shape().numDimensions()).isZero();
+            assertThat(weights.get(0).getFloat()).isEqualTo(2f);
+            assertThat(weights.get(1).shape().asArray()).containsExactly(3, 2);
+            assertThat(weights.get(1).getFloat(2, 1)).isEqualTo(6f);
+        } finally {
+            weights.forEach(TFloat32::close);
+        }
+        // the checkpointed epoch keeps its own weights
+        checkpoints.restore(session, checkpoints.latest().orElseThrow());
+        assertThat(weight()).isEqualTo(3f);
+    }
+
+    @Test
+    void checkpointsWithoutEarlyStoppingHaveNoBestWeights() throws IOException {
+        var checkpoints = checkpoints("run", 5);
+        checkpoints.save(session, 1, -1, 0, null);
+
+        assertThat(checkpoints.bestWeights(checkpoints.latest().orElseThrow())).isEmpty();
+    }
+
+    @Test
+    void ignoresTheCheckpointsOfOtherRuns() throws IOException {
+        checkpoints("other-run", 5).save(session, 1, -1, 0, null);
+        var checkpoints = checkpoints("run", 5);
+        checkpoints.save(session, 2, -1, 0, null);
+        checkpoints("other-run", 5).save(session, 3, -1, 0, null);
+
+        assertThat(checkpoints.latest()).get().extracting(IrisCheckpoints.Checkpoint::epoch).isEqualTo(2);
+        assertThat(checkpoints("unknown-run", 5).latest()).isEmpty();
+    }
+
+    @Test
+    void keepsOnlyTheNewestCheckpointsAndNoTemporaryDirectory() throws IOException {
+        var checkpoints = checkpoints("run", 2);
+        for (int epoch = 1; epoch <= 4; epoch++) {
+            checkpoints.save(session, epoch, -1, 0, null);
+        }
+
+        assertThat(children()).containsExactlyInAnyOrder("3", "4");
+    }
+
+    @Test
+    void skipsALeftoverPartialCheckpoint() throws IOException {
+        var checkpoints = checkpoints("run", 5);
+        checkpoints.save(session, 1, -1, 0, null);
+        // a crash while saving epoch 2 leaves only its temporary directory
+        Files.createDirectories(checkpointPath.resolve("2.tmp"));
+        // a directory without state is not a checkpoint
+        Files.createDirectories(checkpointPath.resolve("3"));
+
+        assertThat(checkpoints.latest()).get().extracting(IrisCheckpoints.Checkpoint::epoch).isEqualTo(1);
+
+        checkpoints.save(session, 2, -1, 0, null);
+        assertThat(children()).contains("1", "2").doesNotContain("2.tmp");
+    }
+
+    @Test
+    void clearDeletesAllTheCheckpoints() throws IOException {
+        var checkpoints = checkpoints("run", 5);
+        checkpoints.save(session, 1, -1, 0, null);
+        checkpoints.save(session, 2, -1, 0, null);
+
+        checkpoints.clear();
+
+        assertThat(checkpoints.latest()).isEmpty();
+        assertThat(children()).isEmpty();
+    }
+
+    private IrisCheckpoints checkpoints(String fingerprint, int keep) {
+        return new IrisCheckpoints(checkpointPath.toString(), fingerprint, keep);
+    }
+
+    private void setWeight(float newValue) {
+        try (var newValueTensor = TFloat32.scalarOf(newValue)) {
+            session.runner().feed(value, newValueTensor).addTarget(tensorFlowApi.assign(weight, value)).run();
+        }
+    }
+
+    private float weight() {
+        try (var result = session.runner().fetch(weight).run()) {
+            return ((TFloat32) result.get(0)).getFloat();
+        }
+    }
+
+    private List<String> children() throws IOException {
+        try (Stream<Path> children = Files.list(checkpointPath)) {
+            return children.map(child -> child.getFileName().toString()).toList();
+        }
+    }
+}
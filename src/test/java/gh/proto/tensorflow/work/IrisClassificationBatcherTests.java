@@ -0,0 +1,183 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The batching workers in front of a mocked classifier answering the sepal
+ * length of each row as its species.
+ */
+class IrisClassificationBatcherTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final IrisClassifier irisClassifier = mock(IrisClassifier.class);
+    private final InferenceExecutor inferenceExecutor = mock(InferenceExecutor.class);
+    private final List<float[]> runs = new ArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean blocking;
+
+    private IrisClassificationBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        when(irisClassifier.classify(any(float[].class), anyInt())).thenAnswer(invocation -> {
+            float[] features = invocation.getArgument(0);
+            int rows = invocation.getArgument(1);
+            synchronized (runs) {
+                runs.add(Arrays.copyOf(features, rows * IrisClassifier.INPUT_LAYER_WIDTH));
+            }
+            started.countDown();
+            if (blocking) {
+                release.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            var species = new String[rows];
+            for (int row = 0; row < rows; row++) {
+                species[row] = "species-"
+                        + (int) features[row * IrisClassifier.INPUT_LAYER_WIDTH + IrisClassifier.SEPAL_LENGTH_IDX];
+            }
+            return species;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (batcher != null) {
+            batcher.clean();
+        }
+    }
+
+    @Test
+    void groupsConcurrentRequestsIntoOneRun() {
+        batcher(4, 1000000, 16, 1, 60000);
+        var species = new ArrayList<CompletableFuture<String>>();
+        for (int idx = 0; idx < 4; idx++) {
+            species.add(batcher.submit(idx, 2, 3, 4));
+        }
+
+        for (int idx = 0; idx < 4; idx++) {
+            assertThat(species.get(idx)).succeedsWithin(TIMEOUT).isEqualTo("species-" + idx);
+        }
+        assertThat(runs).hasSize(1);
+        assertThat(runs.get(0)).containsExactly(0, 2, 3, 4, 1, 2, 3, 4, 2, 2, 3, 4, 3, 2, 3, 4);
+    }
+
+    @Test
+    void closesABatchAtTheMaxWait() {
+        batcher(64, 1000, 16, 1, 60000);
+
+        assertThat(batcher.submit(7, 2, 3, 4)).succeedsWithin(TIMEOUT).isEqualTo("species-7");
+        assertThat(runs).hasSize(1);
+    }
+
+    @Test
+    void rejectsRequestsOverTheQueueCapacity() throws InterruptedException {
+        blocking = true;
+        batcher(1, 0, 1, 1, 60000);
+        var running = batcher.submit(1, 2, 3, 4);
+        assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        var queued = batcher.submit(2, 2, 3, 4);
+
+        var rejected = batcher.submit(3, 2, 3, 4);
+
+        assertThat(reason(rejected)).isEqualTo(Reason.QUEUE_FULL);
+        release.countDown();
+        assertThat(running).succeedsWithin(TIMEOUT).isEqualTo("species-1");
+        assertThat(queued).succeedsWithin(TIMEOUT).isEqualTo("species-2");
+    }
+
+    @Test
+    void dropsRequestsThatWaitedOverTheBudget() throws InterruptedException {
+        blocking = true;
+        batcher(1, 0, 4, 1, 50);
+        var running = batcher.submit(1, 2, 3, 4);
+        assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        var queued = batcher.submit(2, 2, 3, 4);
+
+        Thread.sleep(200);
+        release.countDown();
+
+        assertThat(running).succeedsWithin(TIMEOUT).isEqualTo("species-1");
+        assertThat(reason(queued)).isEqualTo(Reason.QUEUE_TIMEOUT);
+        assertThat(runs).hasSize(1);
+    }
+
+    @Test
+    void answersTheCollectedBatchWhenStopping() throws InterruptedException {
+        // the worker waits for more requests until interrupted
+        batcher(64, TimeUnit.SECONDS.toMicros(60), 16, 1, 60000);
+        var collected = batcher.submit(1, 2, 3, 4);
+        Thread.sleep(100);
+
+        batcher.clean();
+
+        assertThat(collected).succeedsWithin(TIMEOUT).isEqualTo("species-1");
+        assertThat(reason(batcher.submit(2, 2, 3, 4))).isEqualTo(Reason.STOPPED);
+    }
+
+    @Test
+    void rejectsTheQueuedRequestsWhenStopping() {
+        // no worker takes them
+        batcher(64, 1000, 16, 0, 60000);
+        var queued = List.of(batcher.submit(1, 2, 3, 4), batcher.submit(2, 2, 3, 4));
+
+        batcher.clean();
+
+        for (var species : queued) {
+            assertThat(reason(species)).isEqualTo(Reason.STOPPED);
+        }
+        verify(irisClassifier, never()).classify(any(float[].class), anyInt());
+    }
+
+    private void batcher(int maxBatchSize, long maxWaitMicros, int queueCapacity, int workers,
+            long maxQueueWaitMillis) {
+        when(inferenceExecutor.maxQueueWaitNanos(IrisClassifier.MODEL_NAME))
+                .thenReturn(TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis));
+        batcher = new IrisClassificationBatcher();
+        ReflectionTestUtils.setField(batcher, "irisClassifier", irisClassifier);
+        ReflectionTestUtils.setField(batcher, "inferenceExecutor", inferenceExecutor);
+        ReflectionTestUtils.setField(batcher, "inferenceMetrics", new InferenceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "maxBatchSize", maxBatchSize);
+        ReflectionTestUtils.setField(batcher, "maxWaitMicros", maxWaitMicros);
+        ReflectionTestUtils.setField(batcher, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(batcher, "workers", workers);
+        batcher.init();
+    }
+
+    private static Reason reason(CompletableFuture<String> species) {
+        try {
+            species.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(InferenceRejectedException.class);
+            return ((InferenceRejectedException) e.getCause()).reason();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        throw new AssertionError("Expected a rejection");
+    }
+}
@@ -0,0 +1,90 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.tensorflow.SavedModelBundle;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Single sample calls of the bundled iris model, on an inference thread and on
+ * any other thread.
+ */
+class IrisClassifierTests {
+
+    private static final Path IRIS_MODEL = Path.of("src", "main", "resources", "models", "iris");
+
+    // a setosa, then a virginica
+    private static final float[] FEATURES = { 5.1f, 3.5f, 1.4f, 0.2f, 6.3f, 3.3f, 6.0f, 2.5f };
+
+    @TempDir
+    Path modelPath;
+
+    private IrisClassifier irisClassifier;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.copy(IRIS_MODEL.resolve("saved_model.pb"), modelPath.resolve("saved_model.pb"));
+        FileSystemUtils.copyRecursively(IRIS_MODEL.resolve("variables"), modelPath.resolve("variables"));
+        var executionProfiles = mock(ModelExecutionProfiles.class);
+        when(executionProfiles.load(anyString(), anyString(), any())).thenAnswer(
+                invocation -> SavedModelBundle.load(invocation.getArgument(1), SavedModelBundle.DEFAULT_TAG));
+
+        irisClassifier = new IrisClassifier();
+        ReflectionTestUtils.setField(irisClassifier, "modelPath", modelPath.toString());
+        ReflectionTestUtils.setField(irisClassifier, "inferenceMetrics",
+                new InferenceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(irisClassifier, "executionProfiles", executionProfiles);
+        irisClassifier.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        irisClassifier.clean();
+    }
+
+    @Test
+    void otherThreadsKeepNoStateOfTheirOwn() {
+        var species = irisClassifier.classify(FEATURES, 2);
+
+        assertThat(irisClassifier.classify(FEATURES[0], FEATURES[1], FEATURES[2], FEATURES[3]))
+                .isEqualTo(species[0]);
+        assertThat(irisClassifier.classify(FEATURES, 1)).containsExactly(species[0]);
+        assertThat(singleSampleCalls()).isEmpty();
+    }
+
+    @Test
+    void inferenceThreadsReuseTheirState() throws InterruptedException {
+        var species = irisClassifier.classify(FEATURES, 2);
+        var onInferenceThread = new AtomicReference<String[]>();
+
+        var thread = new InferenceThread(() -> onInferenceThread.set(new String[] {
+                irisClassifier.classify(FEATURES[4], FEATURES[5], FEATURES[6], FEATURES[7]),
+                irisClassifier.classify(FEATURES, 1)[0] }), "iris-inference-test");
+        thread.start();
+        thread.join();
+
+        assertThat(onInferenceThread.get()).containsExactly(species[1], species[0]);
+        assertThat(singleSampleCalls()).hasSize(1);
+    }
+
+    private Set<?> singleSampleCalls() {
+        return (Set<?>) ReflectionTestUtils.getField(irisClassifier, "allSingleSampleCalls");
+    }
+}
@@ -0,0 +1,113 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+class IrisDataSetTests {
+
+    @Test
+    void parsesFeaturesAndSpecies() throws IOException {
+        var dataSet = load("5.1,3.5,1.4,0.2,Iris-setosa\r\n\n -6.7, 3.0 ,5.2,2.3,Iris-virginica\n"
+                + "5,2.25,3.5,1,Iris-versicolor");
+
+        assertThat(dataSet.samples()).isEqualTo(3);
+        assertThat(dataSet.outputIdx(0)).isZero();
+        assertThat(dataSet.outputIdx(1)).isEqualTo(2);
+        assertThat(dataSet.outputIdx(2)).isEqualTo(1);
+
+        var features = new float[2 * 4];
+        var oneHotSpecies = new float[2 * IrisDataSet.SPECIES];
+        dataSet.copySample(1, DataBuffers.of(features, false, false), DataBuffers.of(oneHotSpecies, false, false),
+                0);
+        dataSet.copySample(2, DataBuffers.of(features, false, false), DataBuffers.of(oneHotSpecies, false, false),
+                1);
+        assertThat(features).containsExactly(-6.7f, 3.0f, 5.2f, 2.3f, 5f, 2.25f, 3.5f, 1f);
+        assertThat(oneHotSpecies).containsExactly(0f, 0f, 1f, 0f, 1f, 0f);
+    }
+
+    @Test
+    void parsesSignsAndExponentsAsFloatValueOf() throws IOException {
+        var numbers = new String[] { "+5.1", "1e-1", "5E0", "-2.5e+1", "+0.035E2", "1.25e-3", "3e2", "7." };
+        var csv = new StringBuilder();
+        for (int idx = 0; idx < numbers.length; idx += 4) {
+            csv.append(String.join(",", numbers[idx], numbers[idx + 1], numbers[idx + 2], numbers[idx + 3]))
+                    .append(",Iris-setosa\n");
+        }
+        var dataSet = load(csv.toString());
+
+        var features = new float[numbers.length];
+        var oneHotSpecies = new float[2 * IrisDataSet.SPECIES];
+        for (int sample = 0; sample < 2; sample++) {
+            dataSet.copySample(sample, DataBuffers.of(features, false, false),
+                    DataBuffers.of(oneHotSpecies, false, false), sample);
+        }
+        for (int idx = 0; idx < numbers.length; idx++) {
+            assertThat(features[idx]).as(numbers[idx]).isEqualTo(Float.valueOf(numbers[idx]));
+        }
+    }
+
+    @Test
+    void parsesTheBundledData() throws IOException {
+        var dataSet = IrisDataSet.load(new ClassPathResource("train_data/iris/bezdekIris.data"));
+
+        assertThat(dataSet.samples()).isEqualTo(150);
+    }
+
+    @Test
+    void rejectsMalformedLinesWithTheirNumber() {
+        assertMalformed("5.1,3.5,1.4,0.2,Iris-setosa\n5.1,3.5,1.4,Iris-setosa\n", "line 2");
+        assertMalformed("5.1,3.5,1.4,0.2,Iris-setosa,1\n", "too many fields");
+        assertMalformed("5.1,3.5,1.4,0.2,Iris-unknown\n", "unknown species name");
+        assertMalformed("5.1,3.x,1.4,0.2,Iris-setosa\n", "unexpected character");
+        assertMalformed("5.1,--3.5,1.4,0.2,Iris-setosa\n", "unexpected character");
+        assertMalformed("5.1,+-3.5,1.4,0.2,Iris-setosa\n", "unexpected character");
+    }
+
+    @Test
+    void rejectsTheOtherFloatNotationsByName() {
+        assertMalformed("NaN,3.5,1.4,0.2,Iris-setosa\n", "numbers are decimal with an optional exponent");
+        assertMalformed("0x1p3,3.5,1.4,0.2,Iris-setosa\n", "numbers are decimal with an optional exponent");
+        assertMalformed("5.1,3.5,1e,0.2,Iris-setosa\n", "exponent without digits in field 3");
+        assertMalformed("5.1,3.5,e1,0.2,Iris-setosa\n", "unexpected character 'e'");
+        assertMalformed("5.1,3.5,1e1.5,0.2,Iris-setosa\n", "unexpected character '.'");
+        assertMalformed("5.1,3.5,1e99999,0.2,Iris-setosa\n", "exponent out of range");
+    }
+
+    @Test
+    void rejectsEmptyFields() {
+        assertMalformed("5.1,,1.4,0.2,Iris-setosa\n", "line 1: empty field 2");
+        assertMalformed("5.1,3.5,1.4, ,Iris-setosa\n", "line 1: empty field 4");
+        assertMalformed("5.1,3.5,-,0.2,Iris-setosa\n", "line 1: empty field 3");
+    }
+
+    @Test
+    void rejectsNumbersOverflowingTheMantissa() {
+        assertMalformed("5.1,3.5,1.4,0.2,Iris-setosa\n99999999999999999999,3.5,1.4,0.2,Iris-setosa\n",
+                "line 2: too many digits");
+    }
+
+    @Test
+    void rejectsEmptyData() {
+        assertThatThrownBy(() -> load("\n\n")).isInstanceOf(ProtoWorkException.class)
+                .hasMessageContaining("No training data");
+    }
+
+    private static void assertMalformed(String csv, String message) {
+        assertThatThrownBy(() -> load(csv)).isInstanceOf(ProtoWorkException.class)
+                .hasMessageContaining("Malformed training data").hasMessageContaining(message);
+    }
+
+    private static IrisDataSet load(String csv) throws IOException {
+        return IrisDataSet.load(new ByteArrayResource(csv.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
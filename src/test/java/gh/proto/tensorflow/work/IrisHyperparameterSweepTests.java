@@ -0,0 +1,123 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.tensorflow.Session;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.web.IrisTrainingController;
+import gh.proto.tensorflow.work.IrisHyperparameterSweep.SearchSpace;
+import gh.proto.tensorflow.work.IrisHyperparameterSweep.SweepRun;
+
+/**
+ * Sweeps of a mocked trainer, a run scoring half its first hidden layer width
+ * on the held-out samples and ending with a loss of one over that width.
+ */
+class IrisHyperparameterSweepTests {
+
+    private static final Path VERSION_PATH = Path.of("models", "1");
+
+    private final IrisTrainer irisTrainer = mock(IrisTrainer.class);
+    private final ThreadLocal<IrisHyperparameters> trained = new ThreadLocal<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private IrisHyperparameterSweep sweep;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(irisTrainer.hyperparameters()).thenReturn(IrisTrainer.DEFAULT_HYPERPARAMETERS);
+        when(irisTrainer.loadTrainingData())
+                .thenReturn(IrisDataSet.load(new ClassPathResource("train_data/iris/bezdekIris.data")));
+        when(irisTrainer.sweepFingerprint()).thenReturn("fingerprint");
+        when(irisTrainer.export(any(Session.class), eq("fingerprint"), any(IrisDataSet.class)))
+                .thenReturn(VERSION_PATH);
+        doAnswer(invocation -> {
+            IrisHyperparameters hyperparameters = invocation.getArgument(2);
+            TrainingMonitor monitor = invocation.getArgument(6);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } finally {
+                running.decrementAndGet();
+            }
+            trained.set(hyperparameters);
+            monitor.epochDone(1, 1, 0, 0, 1.0 / hyperparameters.hiddenLayer1Width());
+            return null;
+        }).when(irisTrainer).train(any(Session.class), any(), any(IrisHyperparameters.class), any(IrisDataSet.class),
+                any(int[].class), anyInt(), any(TrainingMonitor.class), any(Level.class), any());
+        when(irisTrainer.evaluate(any(Session.class), any(IrisDataSet.class), any(int[].class)))
+                .thenAnswer(invocation -> (int) trained.get().hiddenLayer1Width() / 2);
+
+        sweep = new IrisHyperparameterSweep();
+        ReflectionTestUtils.setField(sweep, "irisTrainer", irisTrainer);
+        ReflectionTestUtils.setField(sweep, "parallelism", 2);
+        ReflectionTestUtils.setField(sweep, "intraOpThreads", 1);
+        ReflectionTestUtils.setField(sweep, "validationFraction", 0.2);
+        ReflectionTestUtils.setField(sweep, "maxConfigurations", 4);
+    }
+
+    @Test
+    void runsAtMostParallelismConfigurationsAtOnce() {
+        var result = sweep.sweep(space(List.of(2L, 4L, 6L, 8L), null), TrainingMonitor.NONE);
+
+        assertThat(result.runs()).hasSize(4);
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    void ordersTheRunsByHeldOutScoreThenLoss() throws IOException {
+        // 4 and 5 score 2, 5 with the lower loss
+        var result = sweep.sweep(space(List.of(2L, 4L, 8L, 5L), null), TrainingMonitor.NONE);
+
+        assertThat(result.runs()).extracting(SweepRun::validationPredictedOk).containsExactly(4, 2, 2, 1);
+        assertThat(result.runs()).extracting(run -> run.hyperparameters().hiddenLayer1Width()).containsExactly(8L,
+                5L, 4L, 2L);
+        assertThat(result.runs()).extracting(SweepRun::validationSamples).containsOnly(30);
+        assertThat(result.versionPath()).isEqualTo(VERSION_PATH);
+        verify(irisTrainer, times(1)).export(any(Session.class), eq("fingerprint"), any(IrisDataSet.class));
+    }
+
+    @Test
+    void refusesSearchSpacesOverMaxConfigurations() {
+        var tooLarge = space(List.of(2L, 4L, 6L, 8L, 10L), null);
+        assertThatThrownBy(() -> sweep.configurations(tooLarge)).isInstanceOf(ProtoWorkException.class)
+                .hasMessageContaining("5 configurations, more than the 4 allowed");
+        assertThatThrownBy(() -> sweep.configurations(space(List.of(2L, 4L, 6L, 8L, 10L, 12L), 5)))
+                .isInstanceOf(ProtoWorkException.class);
+        // drawn at random within the limit
+        assertThat(sweep.configurations(space(List.of(2L, 4L, 6L, 8L, 10L), 3))).hasSize(3).doesNotHaveDuplicates();
+
+        var irisTrainingJobs = new IrisTrainingJobs();
+        ReflectionTestUtils.setField(irisTrainingJobs, "irisHyperparameterSweep", sweep);
+        var controller = new IrisTrainingController();
+        ReflectionTestUtils.setField(controller, "irisTrainingJobs", irisTrainingJobs);
+        assertThatThrownBy(() -> controller.submitSweep(tooLarge)).isInstanceOfSatisfying(
+                ResponseStatusException.class, e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    private static SearchSpace space(List<Long> hiddenLayer1Widths, Integer randomSamples) {
+        return new SearchSpace(hiddenLayer1Widths, null, null, null, null, randomSamples);
+    }
+}
@@ -0,0 +1,103 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class IrisPredictionCacheTests {
+
+    private final IrisClassifier irisClassifier = mock(IrisClassifier.class);
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        var cache = cache(false, 64);
+
+        cache.put(1, 2, 3, 4, "Iris-setosa", cache.generation());
+
+        assertThat(cache.get(1, 2, 3, 4)).isNull();
+        assertThat(cache.stats().capacity()).isZero();
+    }
+
+    @Test
+    void returnsCachedSpeciesOfTheSameSampleOnly() {
+        var cache = cache(true, 64);
+
+        cache.put(1, 2, 3, 4, "Iris-setosa", cache.generation());
+
+        assertThat(cache.get(1, 2, 3, 4)).isEqualTo("Iris-setosa");
+        assertThat(cache.get(1, 2, 4, 3)).isNull();
+        assertThat(cache.get(-0f, 2, 3, 4)).isNull();
+        var stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(2);
+        assertThat(stats.capacity()).isEqualTo(64);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedSlotOfAFullSet() {
+        // a single set of 8 ways, every sample maps to it
+        var cache = cache(true, 8);
+        for (int sample = 0; sample < 8; sample++) {
+            cache.put(sample, 0, 0, 0, "species-" + sample, cache.generation());
+        }
+        assertThat(cache.get(0, 0, 0, 0)).isEqualTo("species-0");
+
+        cache.put(8, 0, 0, 0, "species-8", cache.generation());
+
+        assertThat(cache.get(1, 0, 0, 0)).isNull();
+        assertThat(cache.get(0, 0, 0, 0)).isEqualTo("species-0");
+        assertThat(cache.get(8, 0, 0, 0)).isEqualTo("species-8");
+        for (int sample = 2; sample < 8; sample++) {
+            assertThat(cache.get(sample, 0, 0, 0)).isEqualTo("species-" + sample);
+        }
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void repeatedPutOfASampleKeepsOneSlot() {
+        var cache = cache(true, 8);
+        for (int put = 0; put < 8; put++) {
+            cache.put(0, 0, 0, 0, "species-0", cache.generation());
+        }
+
+        for (int sample = 1; sample < 8; sample++) {
+            cache.put(sample, 0, 0, 0, "species-" + sample, cache.generation());
+        }
+
+        assertThat(cache.get(0, 0, 0, 0)).isEqualTo("species-0");
+        assertThat(cache.stats().evictions()).isZero();
+    }
+
+    @Test
+    void invalidationDropsEntriesAndStalePredictions() {
+        var cache = cache(true, 64);
+        verify(irisClassifier).addModelSwapListener(any());
+        var generation = cache.generation();
+        cache.put(1, 2, 3, 4, "Iris-setosa", generation);
+
+        cache.invalidate();
+
+        assertThat(cache.get(1, 2, 3, 4)).isNull();
+        // predicted by the swapped out model
+        cache.put(1, 2, 3, 4, "Iris-setosa", generation);
+        assertThat(cache.get(1, 2, 3, 4)).isNull();
+        cache.put(1, 2, 3, 4, "Iris-virginica", cache.generation());
+        assertThat(cache.get(1, 2, 3, 4)).isEqualTo("Iris-virginica");
+        assertThat(cache.stats().invalidations()).isEqualTo(1);
+        // stale slots are reused without counting an eviction
+        assertThat(cache.stats().evictions()).isZero();
+    }
+
+    private IrisPredictionCache cache(boolean enabled, int maxEntries) {
+        var cache = new IrisPredictionCache();
+        ReflectionTestUtils.setField(cache, "irisClassifier", irisClassifier);
+        ReflectionTestUtils.setField(cache, "enabled", enabled);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,180 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tensorflow.Graph;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Session;
+import org.tensorflow.ndarray.StdArrays;
+import org.tensorflow.types.TFloat32;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.IrisTrainer.ExportMode;
+import gh.proto.tensorflow.work.IrisTrainer.HeldOutSplit;
+import gh.proto.tensorflow.work.IrisTrainer.WeightPrecision;
+
+/**
+ * The export of an untrained network, its initial weights standing in for
+ * trained ones.
+ */
+class IrisTrainerTests {
+
+    private static final String WEIGHTS = "hiddenLayer1Weights";
+
+    @TempDir
+    Path exportPath;
+
+    private IrisTrainer irisTrainer;
+    private Graph graph;
+    private Session session;
+    private IrisTrainer.TrainingOps trainingOps;
+    private IrisDataSet data;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        irisTrainer = new IrisTrainer();
+        ReflectionTestUtils.setField(irisTrainer, "inputData",
+                new ClassPathResource("train_data/iris/bezdekIris.data"));
+        ReflectionTestUtils.setField(irisTrainer, "exportPath", exportPath.toString());
+        ReflectionTestUtils.setField(irisTrainer, "keepVersions", 3);
+        ReflectionTestUtils.setField(irisTrainer, "exportMode", ExportMode.INFERENCE);
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.FLOAT32);
+        ReflectionTestUtils.setField(irisTrainer, "exportMinAgreement", 0.99);
+        ReflectionTestUtils.setField(irisTrainer, "batchSize", 1);
+        ReflectionTestUtils.setField(irisTrainer, "hiddenLayer1Width", 5L);
+        ReflectionTestUtils.setField(irisTrainer, "hiddenLayer2Width", 4L);
+        ReflectionTestUtils.setField(irisTrainer, "learningRate", 0.01f);
+        ReflectionTestUtils.setField(irisTrainer, "epochs", 1);
+
+        graph = new Graph();
+        session = new Session(graph);
+        trainingOps = irisTrainer.buildTraining(graph, irisTrainer.hyperparameters());
+        session.initialize();
+        data = irisTrainer.loadTrainingData();
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+        graph.close();
+    }
+
+    @Test
+    void keepsTheReducedPrecisionThatAgreesEnough() throws IOException {
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.INT8);
+        ReflectionTestUtils.setField(irisTrainer, "exportMinAgreement", 0.0);
+
+        assertThat(exportedWeightOps(irisTrainer.saveInference(session, data))).containsExactly(true, false);
+    }
+
+    @Test
+    void fallsBackToFloat32WhenTheReducedPrecisionAgreesTooLittle() throws IOException {
+        // no reduced precision can agree on more than all the samples
+        ReflectionTestUtils.setField(irisTrainer, "exportMinAgreement", 1.01);
+
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.INT8);
+        assertThat(exportedWeightOps(irisTrainer.saveInference(session, data))).containsExactly(false, false);
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.FLOAT16);
+        assertThat(exportedWeightOps(irisTrainer.saveInference(session, data))).containsExactly(false, false);
+    }
+
+    @Test
+    void float16WeightsAreStoredAsHalfFloats() throws IOException {
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.FLOAT16);
+        ReflectionTestUtils.setField(irisTrainer, "exportMinAgreement", 0.0);
+
+        assertThat(exportedWeightOps(irisTrainer.saveInference(session, data))).containsExactly(false, true);
+    }
+
+    @Test
+    void exportsOfOtherSettingsAreNotUpToDate() throws IOException {
+        String fingerprintText = ReflectionTestUtils.invokeMethod(irisTrainer, "fingerprintText",
+                irisTrainer.hyperparameters());
+        String fingerprint = ReflectionTestUtils.invokeMethod(irisTrainer, "trainingFingerprint", fingerprintText);
+        irisTrainer.export(session, fingerprint, data);
+        assertThat(irisTrainer.isExportUpToDate()).isTrue();
+
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.FLOAT16);
+        assertThat(irisTrainer.isExportUpToDate()).isFalse();
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.FLOAT32);
+        ReflectionTestUtils.setField(irisTrainer, "exportMode", ExportMode.TRAINING);
+        assertThat(irisTrainer.isExportUpToDate()).isFalse();
+    }
+
+    @Test
+    void sweepExportsOfOtherSettingsAreNotUpToDate() throws IOException {
+        irisTrainer.export(session, irisTrainer.sweepFingerprint(), data);
+        assertThat(irisTrainer.isExportUpToDate()).isTrue();
+
+        ReflectionTestUtils.setField(irisTrainer, "exportPrecision", WeightPrecision.INT8);
+        assertThat(irisTrainer.isExportUpToDate()).isFalse();
+    }
+
+    @Test
+    void fingerprintsTheDataFollowedByTheText() throws Exception {
+        var digest = MessageDigest.getInstance("SHA-256");
+        digest.update(new ClassPathResource("train_data/iris/bezdekIris.data").getContentAsByteArray());
+        digest.update("text".getBytes(StandardCharsets.UTF_8));
+        var expected = HexFormat.of().formatHex(digest.digest());
+
+        // the same from the digest of the data read once
+        for (int idx = 0; idx < 2; idx++) {
+            String fingerprint = ReflectionTestUtils.invokeMethod(irisTrainer, "trainingFingerprint", "text");
+            assertThat(fingerprint).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void rejectsTrainingsWithoutSamples() {
+        assertThatThrownBy(() -> irisTrainer.train(session, trainingOps, irisTrainer.hyperparameters(), data,
+                new int[0], 0, TrainingMonitor.NONE, Level.DEBUG, epoch -> false))
+                .isInstanceOf(ProtoWorkException.class).hasMessageContaining("No iris samples to train on");
+        // the only sample would be held out
+        assertThatThrownBy(() -> HeldOutSplit.of(1, 0.2)).isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> new IrisHyperparameters(5, 4, 0.01f, 1, 0)).isInstanceOf(ProtoWorkException.class);
+    }
+
+    @Test
+    void keptBestWeightsDontFollowTheTraining() {
+        List<TFloat32> bestWeights = ReflectionTestUtils.invokeMethod(IrisTrainer.class, "copyNetwork", session);
+        try {
+            var kept = StdArrays.array2dCopyOf(bestWeights.get(0));
+            irisTrainer.train(session, trainingOps, irisTrainer.hyperparameters(), data,
+                    HeldOutSplit.allSamples(data.samples()), 0, TrainingMonitor.NONE, Level.DEBUG, epoch -> false);
+
+            assertThat(StdArrays.array2dCopyOf(bestWeights.get(0))).isDeepEqualTo(kept);
+            try (var trained = session.runner().fetch(WEIGHTS).run()) {
+                assertThat(Arrays.deepEquals(StdArrays.array2dCopyOf((TFloat32) trained.get(0)), kept)).isFalse();
+            }
+        } finally {
+            bestWeights.forEach(TFloat32::close);
+        }
+    }
+
+    /**
+     * @return whether the exported first layer weights are stored as int8 and as
+     *         float16
+     */
+    private static Boolean[] exportedWeightOps(Path versionPath) {
+        try (var exported = SavedModelBundle.load(versionPath.toString(), SavedModelBundle.DEFAULT_TAG)) {
+            return new Boolean[] { exported.graph().operation(WEIGHTS + "Int8") != null,
+                    exported.graph().operation(WEIGHTS + "Float16") != null };
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.IrisTrainingJobs.JobState;
+import gh.proto.tensorflow.work.IrisTrainingJobs.JobStatus;
+
+/**
+ * The jobs of a mocked trainer, a training being batches that check the
+ * cancellation until released.
+ */
+class IrisTrainingJobsTests {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final Path VERSION_PATH = Path.of("models", "1");
+
+    private final IrisTrainer irisTrainer = mock(IrisTrainer.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private IrisTrainingJobs irisTrainingJobs;
+
+    @BeforeEach
+    void setUp() {
+        when(irisTrainer.doTrain(any(TrainingMonitor.class))).thenAnswer(invocation -> {
+            TrainingMonitor monitor = invocation.getArgument(0);
+            started.countDown();
+            while (!release.await(1, TimeUnit.MILLISECONDS)) {
+                if (monitor.isCancelled()) {
+                    throw new CancellationException("cancelled between batches");
+                }
+            }
+            return VERSION_PATH;
+        });
+
+        irisTrainingJobs = new IrisTrainingJobs();
+        ReflectionTestUtils.setField(irisTrainingJobs, "irisTrainer", irisTrainer);
+        ReflectionTestUtils.setField(irisTrainingJobs, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(irisTrainingJobs, "jobHistory", 20);
+        irisTrainingJobs.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        irisTrainingJobs.clean();
+    }
+
+    @Test
+    void runsTheJobsOneAtATime() throws InterruptedException {
+        var running = irisTrainingJobs.submit();
+        assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        var queued = irisTrainingJobs.submit();
+
+        assertThat(state(running)).isEqualTo(JobState.RUNNING);
+        assertThat(state(queued)).isEqualTo(JobState.QUEUED);
+        release.countDown();
+
+        assertThat(awaitFinished(running).state()).isEqualTo(JobState.SUCCEEDED);
+        var finished = awaitFinished(queued);
+        assertThat(finished.state()).isEqualTo(JobState.SUCCEEDED);
+        assertThat(finished.startedAt()).isNotNull();
+        verify(eventPublisher, times(2)).publishEvent(new IrisModelExported(VERSION_PATH));
+    }
+
+    @Test
+    void failedTrainingsKeepTheirError() {
+        when(irisTrainer.doTrain(any(TrainingMonitor.class))).thenThrow(new ProtoWorkException("no data"));
+
+        var failed = awaitFinished(irisTrainingJobs.submit());
+
+        assertThat(failed.state()).isEqualTo(JobState.FAILED);
+        assertThat(failed.error()).isEqualTo("no data");
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void aFailedReloadLeavesTheJobSucceeded() {
+        release.countDown();
+        doThrow(new ProtoWorkException("bad model")).when(eventPublisher).publishEvent(any(Object.class));
+
+        assertThat(awaitFinished(irisTrainingJobs.submit()).state()).isEqualTo(JobState.SUCCEEDED);
+    }
+
+    @Test
+    void cancelsARunningJobBetweenBatches() throws InterruptedException {
+        var running = irisTrainingJobs.submit();
+        assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+
+        irisTrainingJobs.cancel(running.id());
+
+        assertThat(awaitFinished(running).state()).isEqualTo(JobState.CANCELLED);
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void cancelledQueuedJobsNeverStart() throws InterruptedException {
+        var running = irisTrainingJobs.submit();
+        assertThat(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        var queued = irisTrainingJobs.submit();
+
+        assertThat(irisTrainingJobs.cancel(queued.id()).orElseThrow().state()).isEqualTo(JobState.CANCELLED);
+        release.countDown();
+
+        assertThat(awaitFinished(running).state()).isEqualTo(JobState.SUCCEEDED);
+        assertThat(irisTrainingJobs.status(queued.id()).orElseThrow().startedAt()).isNull();
+        verify(irisTrainer, times(1)).doTrain(any(TrainingMonitor.class));
+    }
+
+    @Test
+    void forgetsTheOldestFinishedJobsOverTheHistory() {
+        ReflectionTestUtils.setField(irisTrainingJobs, "jobHistory", 2);
+        release.countDown();
+        var first = awaitFinished(irisTrainingJobs.submit());
+        var second = awaitFinished(irisTrainingJobs.submit());
+        var third = awaitFinished(irisTrainingJobs.submit());
+
+        var fourth = irisTrainingJobs.submit();
+
+        assertThat(irisTrainingJobs.status(first.id())).isEmpty();
+        assertThat(irisTrainingJobs.statuses()).extracting(JobStatus::id).containsExactly(second.id(), third.id(),
+                fourth.id());
+    }
+
+    private JobState state(JobStatus job) {
+        return irisTrainingJobs.status(job.id()).orElseThrow().state();
+    }
+
+    private JobStatus awaitFinished(JobStatus job) {
+        var deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            var status = irisTrainingJobs.status(job.id()).orElseThrow();
+            if (status.finishedAt() != null) {
+                return status;
+            }
+            Thread.onSpinWait();
+        }
+        throw new AssertionError("Job " + job.id() + " not finished");
+    }
+}
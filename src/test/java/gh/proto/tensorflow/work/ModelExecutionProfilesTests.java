@@ -0,0 +1,72 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gh.proto.tensorflow.work.ModelExecutionProfiles.ExecutionProfile;
+
+/**
+ * The profiles read from the environment and the candidates of the auto-tune,
+ * no model is loaded.
+ */
+class ModelExecutionProfilesTests {
+
+    private final MockEnvironment environment = new MockEnvironment();
+    private ModelExecutionProfiles executionProfiles;
+
+    @BeforeEach
+    void setUp() {
+        executionProfiles = new ModelExecutionProfiles();
+        ReflectionTestUtils.setField(executionProfiles, "environment", environment);
+    }
+
+    @Test
+    void modelSettingsOverrideTheDefaults() {
+        environment.setProperty("tensorflow.execution.defaults.intra-op-threads", "4");
+        environment.setProperty("tensorflow.execution.defaults.xla-jit", "true");
+        environment.setProperty("tensorflow.execution.models.iris.intra-op-threads", "1");
+
+        assertThat(executionProfiles.profile("iris")).isEqualTo(new ExecutionProfile(1, 0, true, true, 0, false));
+        assertThat(executionProfiles.profile("other")).isEqualTo(new ExecutionProfile(4, 0, true, true, 0, false));
+    }
+
+    @Test
+    void sharedPoolsUnlessTheThreadsAreSet() {
+        var shared = executionProfiles.profile("iris").configProto();
+        assertThat(shared.getUsePerSessionThreads()).isFalse();
+        assertThat(shared.getIntraOpParallelismThreads()).isZero();
+
+        var own = executionProfiles.profile("iris").withThreads(2, 1).configProto();
+        assertThat(own.getUsePerSessionThreads()).isTrue();
+        assertThat(own.getIntraOpParallelismThreads()).isEqualTo(2);
+        assertThat(own.getInterOpParallelismThreads()).isEqualTo(1);
+    }
+
+    @Test
+    void autoTuneTriesTheConfiguredProfileFirst() {
+        var configured = executionProfiles.profile("iris");
+
+        List<ExecutionProfile> candidates = ReflectionTestUtils.invokeMethod(executionProfiles, "threadSplits",
+                configured, 2);
+
+        assertThat(candidates.get(0)).isEqualTo(configured);
+        assertThat(candidates).doesNotHaveDuplicates();
+        assertThat(candidates.subList(1, candidates.size())).allSatisfy(candidate -> {
+            assertThat(candidate.intraOpThreads()).isPositive();
+            assertThat(candidate.interOpThreads()).isPositive();
+        });
+
+        // a configured split is tried once
+        var split = configured.withThreads(1, 1);
+        List<ExecutionProfile> splitCandidates = ReflectionTestUtils.invokeMethod(executionProfiles, "threadSplits",
+                split, 2);
+        assertThat(splitCandidates.get(0)).isEqualTo(split);
+        assertThat(splitCandidates).doesNotHaveDuplicates();
+    }
+}
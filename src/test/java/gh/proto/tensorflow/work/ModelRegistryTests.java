@@ -0,0 +1,160 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.tensorflow.SavedModelBundle;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.InferenceRejectedException.Reason;
+import gh.proto.tensorflow.work.ModelRegistry.ModelStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Loads and evictions of mocked bundles, each model taking the memory it is
+ * configured with against a 1000 bytes budget.
+ */
+class ModelRegistryTests {
+
+    @TempDir
+    Path modelsPath;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MockEnvironment environment = new MockEnvironment();
+    private final ModelExecutionProfiles executionProfiles = mock(ModelExecutionProfiles.class);
+    private final Map<String, SavedModelBundle> bundles = new HashMap<>();
+    private ModelRegistry modelRegistry;
+
+    @BeforeEach
+    void setUp() {
+        when(executionProfiles.load(anyString(), anyString())).thenAnswer(invocation -> {
+            var bundle = mock(SavedModelBundle.class);
+            bundles.put(invocation.getArgument(0), bundle);
+            return bundle;
+        });
+
+        modelRegistry = new ModelRegistry();
+        ReflectionTestUtils.setField(modelRegistry, "memoryBudget", DataSize.ofBytes(1000));
+        ReflectionTestUtils.setField(modelRegistry, "idleMillis", 0L);
+        ReflectionTestUtils.setField(modelRegistry, "environment", environment);
+        ReflectionTestUtils.setField(modelRegistry, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(modelRegistry, "inferenceMetrics", new InferenceMetrics(meterRegistry));
+        ReflectionTestUtils.setField(modelRegistry, "executionProfiles", executionProfiles);
+    }
+
+    @AfterEach
+    void tearDown() {
+        modelRegistry.clean();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedModelOverTheBudget() throws IOException {
+        register("a", "400B");
+        register("b", "400B");
+        register("c", "400B");
+        modelRegistry.init();
+
+        modelRegistry.signatures("a");
+        modelRegistry.signatures("b");
+        modelRegistry.signatures("a");
+        modelRegistry.signatures("c");
+
+        assertThat(modelRegistry.statuses()).extracting(ModelStatus::loaded).containsExactly(true, false, true);
+        verify(bundles.get("b")).close();
+        verify(bundles.get("a"), never()).close();
+        assertThat(meterRegistry.get("tensorflow.registry.resident").gauge().value()).isEqualTo(800);
+        assertThat(meterRegistry.get("tensorflow.registry.evictions").tag("model", "b").tag("reason", "budget")
+                .counter().count()).isEqualTo(1);
+
+        // loaded again on its next call
+        modelRegistry.signatures("b");
+        assertThat(modelRegistry.statuses()).extracting(ModelStatus::loaded).containsExactly(false, true, true);
+    }
+
+    @Test
+    void rejectsALoadThatOnlyBusyModelsCouldMakeRoomFor() throws IOException {
+        register("a", "600B");
+        register("b", "600B");
+        modelRegistry.init();
+        modelRegistry.signatures("a");
+        // b is loaded while a call of a is running
+        when(bundles.get("a").signatures()).thenAnswer(invocation -> modelRegistry.signatures("b"));
+
+        assertThatThrownBy(() -> modelRegistry.signatures("a")).isInstanceOfSatisfying(
+                InferenceRejectedException.class, e -> assertThat(e.reason()).isEqualTo(Reason.OVER_MEMORY_BUDGET));
+        assertThat(modelRegistry.statuses()).extracting(ModelStatus::loaded).containsExactly(true, false);
+        assertThat(modelRegistry.statuses()).extracting(ModelStatus::inFlight).containsExactly(0, 0);
+        assertThat(meterRegistry.get("tensorflow.registry.resident").gauge().value()).isEqualTo(600);
+    }
+
+    @Test
+    void evictsTheIdleModels() throws IOException, InterruptedException {
+        register("a", "400B");
+        register("b", "400B");
+        modelRegistry.init();
+        modelRegistry.signatures("a");
+        Thread.sleep(500);
+        modelRegistry.signatures("b");
+
+        ReflectionTestUtils.setField(modelRegistry, "idleMillis", 250L);
+        ReflectionTestUtils.invokeMethod(modelRegistry, "evictIdle");
+
+        assertThat(modelRegistry.statuses()).extracting(ModelStatus::loaded).containsExactly(false, true);
+        verify(bundles.get("a")).close();
+        assertThat(meterRegistry.get("tensorflow.registry.evictions").tag("model", "a").tag("reason", "idle")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void configErrorsAreNotInputErrors() throws IOException {
+        register("big", "2000B");
+        environment.setProperty("tensorflow.registry.models.missing.path", modelsPath.resolve("missing").toString());
+        modelRegistry.init();
+
+        assertThatThrownBy(() -> modelRegistry.signatures("big")).isInstanceOf(ProtoWorkException.class)
+                .isNotInstanceOf(ModelInputException.class).hasMessageContaining("over the registry memory budget");
+        assertThatThrownBy(() -> modelRegistry.signatures("missing")).isInstanceOf(ProtoWorkException.class)
+                .isNotInstanceOf(ModelInputException.class).hasMessageContaining("No SavedModel found");
+        assertThatThrownBy(() -> modelRegistry.signatures("unknown")).isInstanceOf(ModelInputException.class);
+        assertThat(meterRegistry.get("tensorflow.registry.resident").gauge().value()).isZero();
+    }
+
+    @Test
+    void cleanClosesTheLoadedModelsAndStopsTheCalls() throws IOException {
+        register("a", "400B");
+        modelRegistry.init();
+        modelRegistry.signatures("a");
+
+        modelRegistry.clean();
+
+        verify(bundles.get("a")).close();
+        assertThat(meterRegistry.get("tensorflow.registry.resident").gauge().value()).isZero();
+        assertThatThrownBy(() -> modelRegistry.signatures("a")).isInstanceOfSatisfying(
+                InferenceRejectedException.class, e -> assertThat(e.reason()).isEqualTo(Reason.STOPPED));
+    }
+
+    private void register(String name, String memory) throws IOException {
+        var modelPath = Files.createDirectories(modelsPath.resolve(name));
+        Files.createFile(modelPath.resolve("saved_model.pb"));
+        environment.setProperty("tensorflow.registry.models." + name + ".path", modelPath.toString());
+        environment.setProperty("tensorflow.registry.models." + name + ".memory", memory);
+    }
+}
@@ -0,0 +1,145 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tensorflow.Graph;
+import org.tensorflow.Result;
+import org.tensorflow.Session;
+import org.tensorflow.SessionFunction;
+import org.tensorflow.Signature;
+import org.tensorflow.Tensor;
+import org.tensorflow.ndarray.StdArrays;
+import org.tensorflow.op.Ops;
+import org.tensorflow.op.core.Placeholder;
+import org.tensorflow.proto.ConfigProto;
+import org.tensorflow.types.TFloat32;
+
+import gh.proto.tensorflow.ProtoWorkException;
+import gh.proto.tensorflow.work.ObjectDetector.ObjectBox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The postprocessing graph fed with model outputs of a stand-in signature, the
+ * model itself is not loaded.
+ */
+class ObjectDetectorTests {
+
+    private static final String[] OUTPUTS = { "num_detections", "detection_scores", "detection_boxes",
+            "detection_classes" };
+
+    private ObjectDetector objectDetector;
+    private Graph modelGraph;
+    private Session modelSession;
+    private SessionFunction modelFunction;
+
+    @BeforeEach
+    void setUp() {
+        var executionProfiles = mock(ModelExecutionProfiles.class);
+        when(executionProfiles.configProto(anyString())).thenReturn(ConfigProto.getDefaultInstance());
+        var metrics = new InferenceMetrics(new SimpleMeterRegistry()).model(ObjectDetector.MODEL_NAME);
+
+        objectDetector = new ObjectDetector();
+        ReflectionTestUtils.setField(objectDetector, "defaultMinScore", 0.3f);
+        ReflectionTestUtils.setField(objectDetector, "defaultMaxDetections", 10);
+        ReflectionTestUtils.setField(objectDetector, "iouThreshold", 0.5f);
+        ReflectionTestUtils.setField(objectDetector, "executionProfiles", executionProfiles);
+        ReflectionTestUtils.setField(objectDetector, "metrics", metrics);
+        ReflectionTestUtils.setField(objectDetector, "postprocessTimer", metrics.stage("postprocess"));
+        ReflectionTestUtils.invokeMethod(objectDetector, "buildPostprocessing");
+
+        // the model outputs fed through, under their signature names
+        modelGraph = new Graph();
+        var tensorFlowApi = Ops.create(modelGraph);
+        var signature = Signature.builder().key("serving_default");
+        for (var output : OUTPUTS) {
+            var placeholder = tensorFlowApi.withName(output).placeholder(TFloat32.class);
+            signature.input(output, placeholder).output(output, tensorFlowApi.identity(placeholder));
+        }
+        modelSession = new Session(modelGraph);
+        modelFunction = SessionFunction.create(signature.build(), modelSession);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ((Session) ReflectionTestUtils.getField(objectDetector, "postprocessingSession")).close();
+        ((Graph) ReflectionTestUtils.getField(objectDetector, "postprocessingGraph")).close();
+        modelSession.close();
+        modelGraph.close();
+    }
+
+    @Test
+    void suppressesOverlappingBoxesOfTheSameClassOnly() {
+        var boxes = postprocess(objectDetector.defaultFilter(), 3,
+                new float[] { 0.9f, 0.8f, 0.7f },
+                new float[][] { { 0, 0, 0.5f, 0.5f }, { 0, 0, 0.5f, 0.48f }, { 0, 0, 0.5f, 0.49f } },
+                new float[] { 1, 1, 3 });
+
+        assertThat(boxes).extracting(ObjectBox::idx).containsExactly(1, 3);
+        assertThat(boxes).extracting(ObjectBox::score).containsExactly(0.9f, 0.7f);
+        assertThat(boxes.get(1).xmax()).isEqualTo(0.49f);
+    }
+
+    @Test
+    void keepsTheRequestedClassesOnly() {
+        var boxes = postprocess(objectDetector.filter(null, null, List.of(3, 5)), 3,
+                new float[] { 0.9f, 0.8f, 0.7f },
+                new float[][] { { 0, 0, 0.1f, 0.1f }, { 0.2f, 0.2f, 0.3f, 0.3f }, { 0.4f, 0.4f, 0.5f, 0.5f } },
+                new float[] { 1, 3, 5 });
+
+        assertThat(boxes).extracting(ObjectBox::idx).containsExactly(3, 5);
+    }
+
+    @Test
+    void dropsLowScoresAndKeepsTheBestUpToMaxDetections() {
+        var boxes = postprocess(objectDetector.filter(0.5f, 2, null), 4,
+                new float[] { 0.6f, 0.95f, 0.4f, 0.8f },
+                new float[][] { { 0, 0, 0.1f, 0.1f }, { 0.2f, 0.2f, 0.3f, 0.3f }, { 0.4f, 0.4f, 0.5f, 0.5f },
+                        { 0.6f, 0.6f, 0.7f, 0.7f } },
+                new float[] { 1, 2, 3, 4 });
+
+        assertThat(boxes).extracting(ObjectBox::idx).containsExactly(2, 4);
+    }
+
+    @Test
+    void ignoresTheSlotsPastNumDetections() {
+        var boxes = postprocess(objectDetector.defaultFilter(), 1,
+                new float[] { 0.5f, 0.9f },
+                new float[][] { { 0, 0, 0.1f, 0.1f }, { 0.2f, 0.2f, 0.3f, 0.3f } },
+                new float[] { 1, 2 });
+
+        assertThat(boxes).extracting(ObjectBox::idx).containsExactly(1);
+    }
+
+    @Test
+    void rejectsBadFilters() {
+        assertThatThrownBy(() -> objectDetector.filter(1f, null, null)).isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> objectDetector.filter(-0.1f, null, null)).isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> objectDetector.filter(null, 0, null)).isInstanceOf(ProtoWorkException.class);
+        assertThatThrownBy(() -> objectDetector.filter(null, null, List.of(1, -1)))
+                .isInstanceOf(ProtoWorkException.class);
+    }
+
+    private List<ObjectBox> postprocess(ObjectDetector.DetectionFilter filter, int numDetections, float[] scores,
+            float[][] boxes, float[] classes) {
+        try (var numDetectionsTensor = TFloat32.vectorOf(numDetections);
+                var scoresTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][] { scores }));
+                var boxesTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][][] { boxes }));
+                var classesTensor = TFloat32.tensorOf(StdArrays.ndCopyOf(new float[][] { classes }))) {
+            Map<String, Tensor> feedDict = Map.of(OUTPUTS[0], numDetectionsTensor, OUTPUTS[1], scoresTensor,
+                    OUTPUTS[2], boxesTensor, OUTPUTS[3], classesTensor);
+            Result modelOutput = modelFunction.call(feedDict);
+            return objectDetector.postprocess(modelOutput, filter);
+        }
+    }
+}
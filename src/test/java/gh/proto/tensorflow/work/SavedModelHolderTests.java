@@ -0,0 +1,103 @@
+package gh.proto.tensorflow.work;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.tensorflow.SavedModelBundle;
+
+import gh.proto.tensorflow.ProtoWorkException;
+
+class SavedModelHolderTests {
+
+    private final SavedModelBundle first = mock(SavedModelBundle.class);
+    private final SavedModelBundle second = mock(SavedModelBundle.class);
+
+    @Test
+    void swappedBundleIsClosedOnceItsLastLeaseIsClosed() {
+        var holder = new SavedModelHolder("test", first, "1");
+        var lease = holder.acquire();
+        var otherLease = holder.acquire();
+
+        holder.swap(second, "2");
+        assertThat(holder.version()).isEqualTo("2");
+        assertThat(lease.bundle()).isSameAs(first);
+        assertThat(lease.version()).isEqualTo("1");
+        verify(first, never()).close();
+
+        lease.close();
+        verify(first, never()).close();
+        otherLease.close();
+        verify(first).close();
+
+        try (var newLease = holder.acquire()) {
+            assertThat(newLease.bundle()).isSameAs(second);
+        }
+        verify(second, never()).close();
+    }
+
+    @Test
+    void swappedBundleWithoutLeasesIsClosedRightAway() {
+        var holder = new SavedModelHolder("test", first, "1");
+
+        holder.swap(second, "2");
+
+        verify(first).close();
+    }
+
+    @Test
+    void closingALeaseTwiceReleasesItOnce() {
+        var holder = new SavedModelHolder("test", first, "1");
+        var lease = holder.acquire();
+        var otherLease = holder.acquire();
+        holder.swap(second, "2");
+
+        lease.close();
+        lease.close();
+
+        verify(first, never()).close();
+        otherLease.close();
+        verify(first, times(1)).close();
+    }
+
+    @Test
+    void closedHolderClosesTheBundleAfterTheLeasesAndRefusesNewOnes() {
+        var holder = new SavedModelHolder("test", first, "1");
+        var lease = holder.acquire();
+
+        holder.close();
+        verify(first, never()).close();
+        assertThat(holder.version()).isNull();
+        assertThatThrownBy(holder::acquire).isInstanceOf(ProtoWorkException.class).hasMessageContaining("closed");
+
+        lease.close();
+        verify(first).close();
+    }
+
+    @Test
+    void swapIntoAClosedHolderClosesTheNewBundle() {
+        var holder = new SavedModelHolder("test", first, "1");
+        holder.close();
+
+        assertThatThrownBy(() -> holder.swap(second, "2")).isInstanceOf(ProtoWorkException.class);
+        verify(second).close();
+    }
+
+    @Test
+    void swapListenersRunAfterEverySwap() {
+        var holder = new SavedModelHolder("test", first, "1");
+        var swaps = new AtomicInteger();
+        holder.addSwapListener(swaps::incrementAndGet);
+
+        holder.swap(second, "2");
+        holder.swap(first, "3");
+
+        assertThat(swaps).hasValue(2);
+    }
+}